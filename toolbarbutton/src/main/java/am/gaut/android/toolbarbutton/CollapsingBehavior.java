@@ -0,0 +1,638 @@
+package am.gaut.android.toolbarbutton;
+
+import android.support.annotation.Nullable;
+import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.CoordinatorLayout;
+import android.graphics.Rect;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+
+import am.gaut.android.toolbarbutton.helpers.CollapsingToolbarHelper;
+import am.gaut.android.toolbarbutton.helpers.TopInsetResolver;
+import am.gaut.android.toolbarbutton.helpers.TraceHelper;
+
+/**
+ * Follows the collapse of the AppBarLayout a view is anchored to, directly or through a view
+ * inside it like its CollapsingToolbarLayout or Toolbar. The geometry is computed once per update
+ * and handed to {@link #apply(View, int, int, int)}, which shows/hides and sizes the
+ * {@link ToolbarButton ToolbarButtons} the view stands for.
+ *
+ * Shared by {@link ToolbarButton.Behavior} and {@link ToolbarButtonGroup.Behavior}.
+ */
+abstract class CollapsingBehavior<V extends View> extends CoordinatorLayout.Behavior<V>
+        implements AppBarLayout.OnOffsetChangedListener, View.OnLayoutChangeListener,
+        ViewTreeObserver.OnPreDrawListener, ViewTreeObserver.OnScrollChangedListener,
+        ViewTreeObserver.OnGlobalLayoutListener, View.OnAttachStateChangeListener {
+    private static final int INVALID = Integer.MIN_VALUE;
+
+    private final CollapsingToolbarHelper mHelper = new CollapsingToolbarHelper();
+
+    // The AppBarLayout holding the anchor, resolved once since layoutDependsOn() is called for
+    // every sibling on every frame
+    private boolean mAnchorResolved;
+    private int mAnchorId = View.NO_ID;
+    private AppBarLayout mAnchoredAppBarLayout;
+
+    // The anchored AppBarLayout, observed for layout and (optionally) offset changes
+    private AppBarLayout mAppBarLayout;
+    private boolean mTrackingOffset;
+    private CoordinatorLayout mParent;
+    private V mChild;
+    // Whether the AppBarLayout gets the nested scroll callbacks before the view, being laid out
+    // before it
+    private boolean mAppBarScrollsFirst;
+
+    // Only recomputed once the AppBarLayout is laid out again. The AppBarLayout reports a layout
+    // change on every layout pass while it's offset, so the last bottom is only forgotten when the
+    // recomputed values actually differ
+    private int mThreshold = INVALID;
+    private int mInset;
+    private boolean mThresholdDirty = true;
+
+    // The CoordinatorLayout can dispatch several changes per frame, only the last one is applied
+    // from our pre-draw listener
+    private boolean mTreeListenersAdded;
+    private boolean mAttachListenerAdded;
+    private boolean mUpdatePending;
+
+    // Nothing is updated while the view can't be seen, it's synced without animations once it
+    // can again. Whether it's on screen is only checked again after a scroll or layout
+    private boolean mSuspended;
+    private boolean mResyncing;
+    private boolean mOnScreen;
+    private boolean mOnScreenDirty = true;
+    private final Rect mGlobalVisibleRect = new Rect();
+
+    // What was last applied to the view
+    private int mLastBottom = INVALID;
+    private int mLastConfigGeneration;
+
+    // How far a collapsing fling is expected to move the toolbar during a show animation, kept
+    // until the AppBarLayout stops or turns around
+    private int mPredictedTravel;
+
+    // Once the nested scroll stops, the AppBarLayout can still be flinging on its own. It's
+    // watched every frame until its bottom stops moving, and settled or unpredicted only then
+    private boolean mSettlePending;
+    private int mWatchedBottom = INVALID;
+    private final Runnable mWatchAppBarRunnable = new Runnable() {
+        @Override
+        public void run() {
+            watchAppBar();
+        }
+    };
+
+    private long mUpdateCount;
+    private long mSkippedUpdateCount;
+
+    abstract TopInsetResolver getTopInsetResolver(V child);
+
+    abstract boolean isOffsetTrackingEnabled(V child);
+
+    /**
+     * Returns a number that changes whenever a setting affecting {@link #apply} changes.
+     */
+    abstract int getConfigGeneration(V child);
+
+    /**
+     * Returns whether the Behavior time of the view is being recorded.
+     */
+    abstract boolean isRecordingMetrics(V child);
+
+    /**
+     * Adds Behavior work, timed with {@link System#nanoTime()}, to the metrics of the buttons the
+     * view stands for.
+     */
+    abstract void recordBehaviorTime(V child, long startNanos, long endNanos);
+
+    /**
+     * Returns whether the view needs nested scroll callbacks, to settle scrubbed transitions or
+     * to predict flings.
+     */
+    abstract boolean needsNestedScroll(V child);
+
+    abstract boolean isPredictiveShowEnabled(V child);
+
+    /**
+     * Returns about how long, in milliseconds, showing the view takes.
+     */
+    abstract long getShowDuration(V child);
+
+    /**
+     * Returns whether the view should follow the nested scrolls moving the AppBarLayout, to be
+     * updated in the same frame as the toolbar.
+     */
+    abstract boolean isNestedScrollTrackingEnabled(V child);
+
+    /**
+     * Called once a nested scroll stopped and the AppBarLayout stopped moving, to settle scrubbed
+     * transitions.
+     */
+    abstract void settle(V child);
+
+    /**
+     * Shows/hides and sizes the view for the given AppBarLayout geometry.
+     *
+     * @param bottom bottom of the AppBarLayout, in the CoordinatorLayout
+     * @param inset top inset of the AppBarLayout
+     * @param threshold bottom under which the toolbar counts as collapsed
+     */
+    abstract void apply(V child, int bottom, int inset, int threshold);
+
+    @Override
+    public boolean layoutDependsOn(CoordinatorLayout parent, V child, View dependency) {
+        // If the view isn't anchored to the dependency, we won't automatically show/hide the
+        // button, so other AppBarLayouts don't need to dispatch to us
+        return dependency == getAnchoredAppBarLayout(parent, child);
+    }
+
+    @Override
+    public boolean onDependentViewChanged(CoordinatorLayout parent, V child, View dependency) {
+        final AppBarLayout appBarLayout = getAnchoredAppBarLayout(parent, child);
+        if (dependency == appBarLayout) {
+            observe(parent, appBarLayout, child);
+            this.updateVisibility(parent, appBarLayout, child);
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean onLayoutChild(CoordinatorLayout parent, V child, int layoutDirection) {
+        if (mAnchoredAppBarLayout == null) {
+            // The anchor may have been added since, look it up again once per layout
+            mAnchorResolved = false;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onStartNestedScroll(CoordinatorLayout coordinatorLayout, V child,
+            View directTargetChild, View target, int nestedScrollAxes) {
+        // Only needed to settle a scrubbed transition once the scroll stops, or to see flings
+        // for predictive show
+        if ((nestedScrollAxes & ViewCompat.SCROLL_AXIS_VERTICAL) == 0) {
+            return false;
+        }
+
+        // A new gesture, whatever the last one left is taken over
+        child.removeCallbacks(mWatchAppBarRunnable);
+        mSettlePending = false;
+
+        if (mPredictedTravel != 0) {
+            // Drop the prediction from the last fling
+            mPredictedTravel = 0;
+            mLastBottom = INVALID;
+        }
+        return needsNestedScroll(child) || isNestedScrollTrackingEnabled(child);
+    }
+
+    @Override
+    public void onNestedPreScroll(CoordinatorLayout coordinatorLayout, V child, View target,
+            int dx, int dy, int[] consumed) {
+        // Scrolling up collapses the AppBarLayout before the target scrolls
+        if (dy > 0) {
+            trackNestedScroll(child, dy);
+        }
+    }
+
+    @Override
+    public void onNestedScroll(CoordinatorLayout coordinatorLayout, V child, View target,
+            int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed) {
+        // Scrolling down expands the AppBarLayout with what the target didn't consume
+        if (dyUnconsumed < 0) {
+            trackNestedScroll(child, dyUnconsumed);
+        }
+    }
+
+    @Override
+    public boolean onNestedFling(CoordinatorLayout coordinatorLayout, V child,
+            View target, float velocityX, float velocityY, boolean consumed) {
+        if (velocityY > 0 && isPredictiveShowEnabled(child) && mChild == child) {
+            // The fling velocity is only an upper bound as the fling decelerates. The prediction
+            // still holds until the fling ends, so a button shown early isn't hidden again
+            mPredictedTravel = (int) (velocityY * getShowDuration(child) / 1000f);
+            mLastBottom = INVALID;
+            updateVisibilityNow(mParent, mAppBarLayout, child);
+            startWatchingAppBar(child);
+        }
+        return false;
+    }
+
+    @Override
+    public void onStopNestedScroll(CoordinatorLayout coordinatorLayout, V child, View target) {
+        if (mChild != child) {
+            settle(child);
+            return;
+        }
+
+        // The finger was lifted, but a fling may keep moving the AppBarLayout
+        mSettlePending = true;
+        startWatchingAppBar(child);
+    }
+
+    @Override
+    public void onOffsetChanged(AppBarLayout appBarLayout, int verticalOffset) {
+        if (mTrackingOffset) {
+            // Applied right away, as the point of tracking the offset is to follow the
+            // AppBarLayout in the frame it moved rather than on the next pre-draw. The pre-draw
+            // update then finds nothing changed
+            updateVisibilityNow(mParent, appBarLayout, mChild);
+        }
+    }
+
+    @Override
+    public void onLayoutChange(View v, int left, int top, int right, int bottom,
+            int oldLeft, int oldTop, int oldRight, int oldBottom) {
+        // Min heights may have changed along with the layout, recompute the threshold on the
+        // next update
+        mThresholdDirty = true;
+    }
+
+    /**
+     * Returns how many times the view was asked to follow the AppBarLayout.
+     */
+    public long getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * Returns how many of those updates exited early since nothing relevant had changed.
+     */
+    public long getSkippedUpdateCount() {
+        return mSkippedUpdateCount;
+    }
+
+    /**
+     * Applies where the AppBarLayout is about to be moved by a nested scroll, instead of waiting
+     * for the dependent view callback once it moved.
+     */
+    private void trackNestedScroll(V child, int dy) {
+        if (mChild != child || !isNestedScrollTrackingEnabled(child) || !checkVisibleToUser(child)) {
+            return;
+        }
+
+        int bottom = mHelper.getDescendantBottom(mParent, mAppBarLayout);
+        if (!mAppBarScrollsFirst) {
+            // The AppBarLayout moves right after us, by as much of the scroll as its range allows
+            final int offset = mAppBarLayout.getTop();
+            final int predictedOffset = Math.max(-mAppBarLayout.getTotalScrollRange(), Math.min(0, offset - dy));
+            bottom += predictedOffset - offset;
+        }
+        // Applied right away rather than on the next pre-draw, which would be too late to
+        // change the layout in this frame
+        updateVisibilityNow(mAppBarLayout, child, bottom);
+    }
+
+    private void startWatchingAppBar(V child) {
+        mWatchedBottom = mHelper.getDescendantBottom(mParent, mAppBarLayout);
+        child.removeCallbacks(mWatchAppBarRunnable);
+        ViewCompat.postOnAnimation(child, mWatchAppBarRunnable);
+    }
+
+    /**
+     * Called every frame after a nested scroll or fling, until the AppBarLayout's bottom didn't
+     * move for a whole frame.
+     */
+    private void watchAppBar() {
+        final int bottom = mHelper.getDescendantBottom(mParent, mAppBarLayout);
+        if (bottom != mWatchedBottom) {
+            if (bottom > mWatchedBottom && mPredictedTravel != 0) {
+                // Expanding again, the prediction no longer holds
+                clearPrediction();
+            }
+            mWatchedBottom = bottom;
+            ViewCompat.postOnAnimation(mChild, mWatchAppBarRunnable);
+            return;
+        }
+
+        if (mPredictedTravel != 0) {
+            clearPrediction();
+        }
+        if (mSettlePending) {
+            mSettlePending = false;
+            settle(mChild);
+        }
+    }
+
+    private void clearPrediction() {
+        mPredictedTravel = 0;
+        mLastBottom = INVALID;
+        updateVisibilityNow(mParent, mAppBarLayout, mChild);
+    }
+
+    /**
+     * Returns the AppBarLayout the view is anchored to, or holding the view it's anchored to.
+     */
+    @Nullable
+    private AppBarLayout getAnchoredAppBarLayout(CoordinatorLayout parent, V child) {
+        final int anchorId = ((CoordinatorLayout.LayoutParams) child.getLayoutParams()).getAnchorId();
+        if (!mAnchorResolved || anchorId != mAnchorId
+                || (mAnchoredAppBarLayout != null && mAnchoredAppBarLayout.getParent() != parent)) {
+            mAnchorId = anchorId;
+            mAnchoredAppBarLayout = findAppBarLayout(parent, anchorId);
+            mAnchorResolved = true;
+        }
+        return mAnchoredAppBarLayout;
+    }
+
+    /**
+     * The anchor can be the AppBarLayout itself, or a view inside it like its
+     * CollapsingToolbarLayout or Toolbar.
+     */
+    @Nullable
+    private static AppBarLayout findAppBarLayout(CoordinatorLayout parent, int anchorId) {
+        if (anchorId == View.NO_ID) {
+            return null;
+        }
+
+        View view = parent.findViewById(anchorId);
+        while (view != null && view != parent) {
+            if (view instanceof AppBarLayout) {
+                return (AppBarLayout) view;
+            }
+            final ViewParent viewParent = view.getParent();
+            view = viewParent instanceof View ? (View) viewParent : null;
+        }
+        return null;
+    }
+
+    /**
+     * Starts observing the layout of the anchored AppBarLayout, and its offset changes if the
+     * view asks for it.
+     */
+    private void observe(CoordinatorLayout parent, AppBarLayout appBarLayout, V child) {
+        if (mAppBarLayout != appBarLayout) {
+            if (mAppBarLayout != null) {
+                mAppBarLayout.removeOnLayoutChangeListener(this);
+                if (mTrackingOffset) {
+                    mAppBarLayout.removeOnOffsetChangedListener(this);
+                    mTrackingOffset = false;
+                }
+            }
+            appBarLayout.addOnLayoutChangeListener(this);
+            mAppBarLayout = appBarLayout;
+            mThresholdDirty = true;
+            mAppBarScrollsFirst = parent.indexOfChild(appBarLayout) < parent.indexOfChild(child);
+        }
+
+        final boolean trackOffset = isOffsetTrackingEnabled(child);
+        if (mTrackingOffset != trackOffset) {
+            if (trackOffset) {
+                appBarLayout.addOnOffsetChangedListener(this);
+            } else {
+                appBarLayout.removeOnOffsetChangedListener(this);
+            }
+            mTrackingOffset = trackOffset;
+        }
+
+        mParent = parent;
+        mChild = child;
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        // While suspended, only checks whether the view can be seen again
+        if (mUpdatePending || mSuspended) {
+            mUpdatePending = false;
+            updateVisibilityNow(mParent, mAppBarLayout, mChild);
+        }
+        return true;
+    }
+
+    @Override
+    public void onScrollChanged() {
+        // A ViewPager scrolling its pages, for instance
+        mOnScreenDirty = true;
+    }
+
+    @Override
+    public void onGlobalLayout() {
+        mOnScreenDirty = true;
+    }
+
+    @Override
+    public void onViewAttachedToWindow(View v) {
+        if (!mTreeListenersAdded) {
+            addTreeListeners(v);
+            // Whatever happened while detached is caught up on the next pre-draw
+            mSuspended = true;
+            mOnScreenDirty = true;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void onViewDetachedFromWindow(View v) {
+        if (mTreeListenersAdded) {
+            final ViewTreeObserver observer = v.getViewTreeObserver();
+            observer.removeOnPreDrawListener(this);
+            observer.removeOnScrollChangedListener(this);
+            observer.removeGlobalOnLayoutListener(this);
+            mTreeListenersAdded = false;
+        }
+        mUpdatePending = false;
+    }
+
+    private void addTreeListeners(View child) {
+        final ViewTreeObserver observer = child.getViewTreeObserver();
+        observer.addOnPreDrawListener(this);
+        observer.addOnScrollChangedListener(this);
+        observer.addOnGlobalLayoutListener(this);
+        mTreeListenersAdded = true;
+    }
+
+    /**
+     * Returns whether the view can currently be seen: attached, in a visible window and on
+     * screen, which an off-screen ViewPager page isn't. Suspends the updates when it can't, and
+     * marks the next one as a resync when it can be seen again.
+     */
+    private boolean checkVisibleToUser(V child) {
+        boolean visible = ViewCompat.isAttachedToWindow(child) && child.getWindowVisibility() == View.VISIBLE;
+        if (visible) {
+            if (mOnScreenDirty) {
+                mOnScreen = mParent.getGlobalVisibleRect(mGlobalVisibleRect);
+                mOnScreenDirty = false;
+            }
+            visible = mOnScreen;
+        }
+
+        if (!visible) {
+            mSuspended = true;
+        } else if (mSuspended) {
+            mSuspended = false;
+            mResyncing = true;
+        }
+        return visible;
+    }
+
+    /**
+     * Schedules an update for the next pre-draw, where the AppBarLayout reached its position for
+     * the frame.
+     */
+    private void updateVisibility(CoordinatorLayout parent, AppBarLayout appBarLayout, V child) {
+        if (mTreeListenersAdded) {
+            mUpdatePending = true;
+            return;
+        }
+
+        // Added lazily so the pre-draw listener runs after the CoordinatorLayout's own, which
+        // dispatches the changes. A listener added during a pre-draw is only called from the next
+        // one, so apply this first update right away
+        addTreeListeners(child);
+        if (!mAttachListenerAdded) {
+            child.addOnAttachStateChangeListener(this);
+            mAttachListenerAdded = true;
+        }
+        updateVisibilityNow(parent, appBarLayout, child);
+    }
+
+    private void updateVisibilityNow(CoordinatorLayout parent, AppBarLayout appBarLayout, V child) {
+        if (!checkVisibleToUser(child)) {
+            return;
+        }
+
+        // AppBarLayout moves through offsetTopAndBottom(), so unless it's transformed its
+        // bottom already includes the current offset
+        updateVisibilityNow(appBarLayout, child, mHelper.getDescendantBottom(parent, appBarLayout));
+    }
+
+    private void updateVisibilityNow(AppBarLayout appBarLayout, V child, int bottom) {
+        final boolean recordMetrics = isRecordingMetrics(child);
+        final long startNanos = recordMetrics ? System.nanoTime() : 0;
+
+        if (mResyncing) {
+            mLastBottom = INVALID;
+        }
+
+        TraceHelper.beginSection("ToolbarButton.updateButtonVisibility");
+        try {
+            computeAndApply(appBarLayout, child, bottom);
+        } finally {
+            mResyncing = false;
+            TraceHelper.endSection();
+        }
+
+        if (recordMetrics) {
+            recordBehaviorTime(child, startNanos, System.nanoTime());
+        }
+    }
+
+    private void computeAndApply(AppBarLayout appBarLayout, V child, int bottom) {
+        mUpdateCount++;
+
+        if (mThresholdDirty) {
+            mThresholdDirty = false;
+            final int inset = getTopInsetResolver(child).getTopInset(appBarLayout);
+            final int threshold = CollapsingToolbarHelper.getMinimumHeightForVisibleOverlappingContent(appBarLayout, inset);
+            if (inset != mInset || threshold != mThreshold) {
+                mInset = inset;
+                mThreshold = threshold;
+                mLastBottom = INVALID;
+            }
+        }
+
+        final int configGeneration = getConfigGeneration(child);
+        if (bottom == mLastBottom && configGeneration == mLastConfigGeneration) {
+            // Nothing changed since the last update
+            mSkippedUpdateCount++;
+            return;
+        }
+
+        mLastBottom = bottom;
+        mLastConfigGeneration = configGeneration;
+
+        apply(child, bottom, mInset, mThreshold);
+    }
+
+    /**
+     * Shows/hides a button for the given geometry, or sets its transition progress when it's
+     * scrubbed.
+     *
+     * @return whether the button is (becoming) visible
+     */
+    boolean applyVisibility(ToolbarButton button, int bottom, int inset, int threshold) {
+        // Hide show code logic borrowed from Android Support Library Floating Action Button
+        if (button.getTransitionMode() == ToolbarButton.TRANSITION_SCRUBBED) {
+            button.setTransitionProgress(getCollapseFraction(bottom, inset, threshold));
+            return bottom <= threshold;
+        }
+
+        final boolean visible = shouldShow(button, bottom, threshold);
+        if (mResyncing) {
+            // Coming back into view, the button shouldn't be seen animating to where it would be
+            button.jumpToState(visible);
+        } else if (visible) {
+            // Outside of clip mode the button is resized on every frame it's shown through, which
+            // a hardware layer would have to be rendered again for
+            button.setTransitionLayerAllowed(button.isClipCollapseEnabled());
+            button.show();
+            button.setTransitionLayerAllowed(true);
+        } else {
+            button.hide();
+        }
+        return visible;
+    }
+
+    /**
+     * Shown buttons stay shown within the hysteresis band past the threshold, and a collapsing
+     * fling moves the bottom used for the decision ahead by its predicted travel.
+     */
+    private boolean shouldShow(ToolbarButton button, int bottom, int threshold) {
+        final int predictedBottom = button.isPredictiveShowEnabled() ? bottom - mPredictedTravel : bottom;
+        if (button.isOrWillBeShown()) {
+            return predictedBottom <= threshold + button.getHysteresis();
+        }
+        return predictedBottom <= threshold;
+    }
+
+    /**
+     * Returns how far the toolbar went from the threshold towards being fully collapsed, which
+     * leaves only its min height (half the threshold, without the inset).
+     */
+    private static float getCollapseFraction(int bottom, int inset, int threshold) {
+        final int range = (threshold - inset) / 2;
+        if (range <= 0) {
+            return bottom <= threshold ? 1f : 0f;
+        }
+        return Math.max(0f, Math.min(1f, (threshold - bottom) / (float) range));
+    }
+
+    /**
+     * Returns the height of the toolbar, which can't be more than the threshold when a button is
+     * shown early.
+     */
+    static int getToolbarHeight(int bottom, int inset, int threshold) {
+        return Math.min(bottom, threshold) - inset;
+    }
+
+    /**
+     * Updates the layout params only when they actually change, as every call requests a
+     * layout pass of the whole CoordinatorLayout. A button keeps its measured width through it,
+     * and saves the size with its state from then on.
+     */
+    static void setLayoutSize(View child, int topMargin, int height) {
+        if (child instanceof ToolbarButton) {
+            ((ToolbarButton) child).setLayoutSizeApplied();
+        }
+
+        ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) child.getLayoutParams();
+        if (params.topMargin != topMargin || params.height != height) {
+            params.topMargin = topMargin;
+            params.height = height;
+            TraceHelper.beginSection("ToolbarButton.setLayoutParams");
+            if (child instanceof ToolbarButton) {
+                final ToolbarButton button = (ToolbarButton) child;
+                button.setHeightOnlyLayoutRequest(true);
+                button.setLayoutParams(params);
+                button.setHeightOnlyLayoutRequest(false);
+            } else {
+                child.setLayoutParams(params);
+            }
+            TraceHelper.endSection();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package am.gaut.android.toolbarbutton;
+
+import android.support.v4.view.ViewCompat;
+import android.view.animation.AnimationUtils;
+
+/**
+ * Default {@link ToolbarButtonAnimator}, moving the button along a spring.
+ *
+ * The spring keeps its position and velocity across transitions, so reversing a transition
+ * halfway only changes its target: the button turns around smoothly, and nothing is allocated.
+ * Each frame is solved analytically, so the spring stays stable whatever the frame time.
+ */
+public class SpringToolbarButtonAnimator implements ToolbarButtonAnimator {
+    /** Settles in about 250ms from fully hidden to fully shown. */
+    public static final float DEFAULT_STIFFNESS = 1500f;
+    /** No overshoot. */
+    public static final float DEFAULT_DAMPING_RATIO = 1f;
+
+    private static final float POSITION_THRESHOLD = 0.001f;
+    private static final float VELOCITY_THRESHOLD = 0.01f;
+    // Longest step solved at once, for frames coming after a pause
+    private static final long MAX_FRAME_MILLIS = 64;
+    // Step and limit used to work out how long a transition takes
+    private static final long DURATION_STEP_MILLIS = 16;
+    private static final long MAX_DURATION_MILLIS = 5000;
+
+    private final float mNaturalFrequency;
+    private final float mDampingRatio;
+    private final long mDuration;
+
+    private ToolbarButton mButton;
+    private Callback mCallback;
+    private boolean mRunning;
+    private float mPosition;
+    private float mVelocity;
+    private float mTarget;
+    private long mStartTime;
+    private long mLastFrameTime;
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    public SpringToolbarButtonAnimator() {
+        this(DEFAULT_STIFFNESS, DEFAULT_DAMPING_RATIO);
+    }
+
+    /**
+     * @param stiffness stiffness of the spring, for a unit mass
+     * @param dampingRatio 1 for no overshoot, lower to bounce, higher to settle more slowly
+     */
+    public SpringToolbarButtonAnimator(float stiffness, float dampingRatio) {
+        if (stiffness <= 0f || dampingRatio <= 0f) {
+            throw new IllegalArgumentException("Stiffness and damping ratio must be positive");
+        }
+        mNaturalFrequency = (float) Math.sqrt(stiffness);
+        mDampingRatio = dampingRatio;
+        mDuration = computeDuration();
+    }
+
+    /**
+     * Runs the spring from hidden to shown until it settles.
+     */
+    private long computeDuration() {
+        mPosition = 0f;
+        mVelocity = 0f;
+        mTarget = 1f;
+        long duration = 0;
+        while (!isAtRest() && duration < MAX_DURATION_MILLIS) {
+            step(DURATION_STEP_MILLIS / 1000f);
+            duration += DURATION_STEP_MILLIS;
+        }
+        mPosition = 0f;
+        mVelocity = 0f;
+        mTarget = 0f;
+        return duration;
+    }
+
+    private boolean isAtRest() {
+        return Math.abs(mPosition - mTarget) < POSITION_THRESHOLD && Math.abs(mVelocity) < VELOCITY_THRESHOLD;
+    }
+
+    @Override
+    public void animateTo(ToolbarButton button, boolean shown, long startDelay, Callback callback) {
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        if (!mRunning) {
+            // Pick up from wherever the button is
+            mPosition = button.getScaleX();
+            mVelocity = 0f;
+            mLastFrameTime = now;
+            mStartTime = now + startDelay;
+            mRunning = true;
+            mButton = button;
+            ViewCompat.postOnAnimation(button, mFrameRunnable);
+        }
+        // A running spring only changes its target, keeping its velocity and not waiting for the
+        // start delay again
+        mTarget = shown ? 1f : 0f;
+        mCallback = callback;
+    }
+
+    @Override
+    public void cancel(ToolbarButton button) {
+        if (mRunning) {
+            mRunning = false;
+            button.removeCallbacks(mFrameRunnable);
+        }
+    }
+
+    @Override
+    public long getDuration() {
+        return mDuration;
+    }
+
+    private void doFrame() {
+        if (!mRunning) {
+            return;
+        }
+
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        if (now > mStartTime) {
+            final long from = Math.max(mLastFrameTime, mStartTime);
+            step(Math.min(now - from, MAX_FRAME_MILLIS) / 1000f);
+        }
+        mLastFrameTime = now;
+
+        if (isAtRest()) {
+            mPosition = mTarget;
+            mVelocity = 0f;
+            mRunning = false;
+            setValue(mButton, mPosition);
+            mCallback.onTransitionEnd(mButton, mTarget == 1f);
+        } else {
+            setValue(mButton, mPosition);
+            ViewCompat.postOnAnimation(mButton, mFrameRunnable);
+        }
+    }
+
+    private static void setValue(ToolbarButton button, float value) {
+        // An under damped spring overshoots, but alpha can't go past 1
+        button.setScaleX(value);
+        button.setScaleY(value);
+        button.setAlpha(Math.max(0f, Math.min(1f, value)));
+    }
+
+    /**
+     * Advances the spring by the given time, in seconds.
+     */
+    private void step(float dt) {
+        final float x0 = mPosition - mTarget;
+        final float v0 = mVelocity;
+        final float w0 = mNaturalFrequency;
+        final float zeta = mDampingRatio;
+
+        final float x;
+        final float v;
+        if (zeta < 1f) {
+            // Under damped
+            final float a = zeta * w0;
+            final float wd = w0 * (float) Math.sqrt(1f - zeta * zeta);
+            final float b = (v0 + a * x0) / wd;
+            final float decay = (float) Math.exp(-a * dt);
+            final float cos = (float) Math.cos(wd * dt);
+            final float sin = (float) Math.sin(wd * dt);
+            x = decay * (x0 * cos + b * sin);
+            v = decay * (v0 * cos - (x0 * wd + a * b) * sin);
+        } else if (zeta == 1f) {
+            // Critically damped
+            final float b = v0 + w0 * x0;
+            final float decay = (float) Math.exp(-w0 * dt);
+            x = (x0 + b * dt) * decay;
+            v = (v0 - w0 * b * dt) * decay;
+        } else {
+            // Over damped
+            final float root = w0 * (float) Math.sqrt(zeta * zeta - 1f);
+            final float r1 = -zeta * w0 + root;
+            final float r2 = -zeta * w0 - root;
+            final float c2 = (v0 - r1 * x0) / (r2 - r1);
+            final float c1 = x0 - c2;
+            final float e1 = (float) Math.exp(r1 * dt);
+            final float e2 = (float) Math.exp(r2 * dt);
+            x = c1 * e1 + c2 * e2;
+            v = c1 * r1 * e1 + c2 * r2 * e2;
+        }
+
+        mPosition = mTarget + x;
+        mVelocity = v;
+    }
+}
@@ -0,0 +1,95 @@
+package am.gaut.android.toolbarbutton;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.support.v4.view.animation.FastOutLinearInInterpolator;
+import android.support.v4.view.animation.LinearOutSlowInInterpolator;
+import android.view.animation.Interpolator;
+
+/**
+ * {@link ToolbarButtonAnimator} running a fixed duration {@link android.view.ViewPropertyAnimator}
+ * animation, like the Floating Action Button does.
+ *
+ * Reversing a transition halfway starts a new animation from where the button is, so the velocity
+ * jumps.
+ */
+public class TimedToolbarButtonAnimator implements ToolbarButtonAnimator {
+    public static final int DEFAULT_DURATION = ToolbarButton.SHOW_HIDE_ANIM_DURATION;
+
+    static final Interpolator DEFAULT_SHOW_INTERPOLATOR = new LinearOutSlowInInterpolator();
+    static final Interpolator DEFAULT_HIDE_INTERPOLATOR = new FastOutLinearInInterpolator();
+
+    private final long mDuration;
+    private final Interpolator mShowInterpolator;
+    private final Interpolator mHideInterpolator;
+
+    private ToolbarButton mButton;
+    private Callback mCallback;
+    private boolean mShown;
+
+    private final AnimatorListenerAdapter mListener = new AnimatorListenerAdapter() {
+        private boolean mCancelled;
+
+        @Override
+        public void onAnimationStart(Animator animation) {
+            mCancelled = false;
+        }
+
+        @Override
+        public void onAnimationCancel(Animator animation) {
+            mCancelled = true;
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            // Cancelled when reversed or stopped, only report the transition that completed
+            if (!mCancelled) {
+                mCallback.onTransitionEnd(mButton, mShown);
+            }
+        }
+    };
+
+    public TimedToolbarButtonAnimator() {
+        this(DEFAULT_DURATION, DEFAULT_SHOW_INTERPOLATOR, DEFAULT_HIDE_INTERPOLATOR);
+    }
+
+    public TimedToolbarButtonAnimator(long duration, Interpolator showInterpolator, Interpolator hideInterpolator) {
+        mDuration = duration;
+        mShowInterpolator = showInterpolator;
+        mHideInterpolator = hideInterpolator;
+    }
+
+    Interpolator getShowInterpolator() {
+        return mShowInterpolator;
+    }
+
+    Interpolator getHideInterpolator() {
+        return mHideInterpolator;
+    }
+
+    @Override
+    public void animateTo(ToolbarButton button, boolean shown, long startDelay, Callback callback) {
+        mButton = button;
+        mCallback = callback;
+        mShown = shown;
+        final float value = shown ? 1f : 0f;
+        button.animate()
+                .scaleX(value)
+                .scaleY(value)
+                .alpha(value)
+                .setDuration(mDuration)
+                .setStartDelay(startDelay)
+                .setInterpolator(shown ? mShowInterpolator : mHideInterpolator)
+                .setListener(mListener);
+    }
+
+    @Override
+    public void cancel(ToolbarButton button) {
+        button.animate().cancel();
+    }
+
+    @Override
+    public long getDuration() {
+        return mDuration;
+    }
+}
@@ -1,23 +1,38 @@
 package am.gaut.android.toolbarbutton;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Outline;
 import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.AppBarLayout;
 import android.support.design.widget.CoordinatorLayout;
 import android.support.v4.view.ViewCompat;
-import android.support.v4.view.animation.FastOutLinearInInterpolator;
-import android.support.v4.view.animation.LinearOutSlowInInterpolator;
+import android.support.v4.widget.TextViewCompat;
+import android.text.method.TransformationMethod;
 import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.animation.Interpolator;
+import android.view.ViewOutlineProvider;
+import android.view.ViewParent;
 import android.widget.Button;
 
-import am.gaut.android.toolbarbutton.helpers.CollapsingToolbarHelper;
+import am.gaut.android.toolbarbutton.helpers.IconCache;
+import am.gaut.android.toolbarbutton.helpers.ShadowDrawable;
+import am.gaut.android.toolbarbutton.helpers.TextSizeTable;
+import am.gaut.android.toolbarbutton.helpers.TopInsetResolver;
+import am.gaut.android.toolbarbutton.helpers.TraceHelper;
 
 /**
  * Toolbar buttons are used for a special type of promoted action. They are used in combination
@@ -51,13 +66,123 @@ public class ToolbarButton extends Button {
         public void onHidden(ToolbarButton toolbarBtn) {}
     }
 
-    private static final String XMLNS_ANDROID = "http://schemas.android.com/apk/res/android";
+    /**
+     * Callback to be invoked with the runtime cost of a ToolbarButton. Setting one enables the
+     * collection of {@link ToolbarButtonMetrics}.
+     */
+    public abstract static class MetricsListener {
+        /**
+         * Called when the Behavior of a ToolbarButton was still working past the frame deadline.
+         *
+         * @param toolbarBtn the ToolbarButton whose Behavior missed the deadline.
+         * @param workNanos time spent in the Behavior during that frame so far.
+         */
+        public void onFrameDeadlineMissed(ToolbarButton toolbarBtn, long workNanos) {}
+    }
+
+    /**
+     * The button is resized through its layout params while the toolbar collapses. This is the
+     * default.
+     */
+    public static final int COLLAPSE_MODE_LAYOUT = 0;
+
+    /**
+     * The button keeps a fixed layout while the toolbar collapses and is clipped to the toolbar
+     * height instead, so scrolling doesn't cause any layout passes. Requires API 18+, falls back
+     * to {@link #COLLAPSE_MODE_LAYOUT} on older versions.
+     */
+    public static final int COLLAPSE_MODE_CLIP = 1;
+
+    /**
+     * The button is shown and hidden with a short animation once the toolbar crosses the
+     * collapse threshold. This is the default.
+     */
+    public static final int TRANSITION_ANIMATED = 0;
+
+    /**
+     * The button's scale and alpha follow the toolbar collapse directly, so the transition tracks
+     * the finger. Only a final settle animation runs once the scroll stops.
+     */
+    public static final int TRANSITION_SCRUBBED = 1;
+
+    static final int SHOW_HIDE_ANIM_DURATION = 200;
+    private static final float DEFAULT_AUTO_FIT_MIN_TEXT_SIZE_SP = 12f;
+    private static final float DEFAULT_ICON_SIZE_DP = 18f;
+
+    private final TopInsetResolver mTopInsetResolver = new TopInsetResolver();
+
+    private static final int STATE_HIDDEN = 0;
+    private static final int STATE_SHOWING = 1;
+    private static final int STATE_SHOWN = 2;
+    private static final int STATE_HIDING = 3;
+
+    private int mState = STATE_HIDDEN;
+    @Nullable private OnVisibilityChangedListener mPendingListener;
+
+    private static final String TRACE_SHOW_ANIMATION = "ToolbarButton.show";
+    private static final String TRACE_HIDE_ANIMATION = "ToolbarButton.hide";
+    private final int mTraceCookie = System.identityHashCode(this);
+
+    private ToolbarButtonAnimator mAnimator;
 
-    private static final int SHOW_HIDE_ANIM_DURATION = 200;
-    private static final Interpolator FAST_OUT_LINEAR_IN_INTERPOLATOR = new FastOutLinearInInterpolator();
-    private static final Interpolator LINEAR_OUT_SLOW_IN_INTERPOLATOR = new LinearOutSlowInInterpolator();
+    private final ToolbarButtonAnimator.Callback mAnimatorCallback = new ToolbarButtonAnimator.Callback() {
+        @Override
+        public void onTransitionEnd(ToolbarButton button, boolean shown) {
+            endTransitionLayer();
+            if (shown) {
+                TraceHelper.endAsyncSection(TRACE_SHOW_ANIMATION, mTraceCookie);
+                if (mState == STATE_SHOWING) {
+                    TraceHelper.beginSection("ToolbarButton.onShowAnimationEnd");
+                    mState = STATE_SHOWN;
+                    dispatchShown();
+                    TraceHelper.endSection();
+                }
+            } else {
+                TraceHelper.endAsyncSection(TRACE_HIDE_ANIMATION, mTraceCookie);
+                if (mState == STATE_HIDING) {
+                    TraceHelper.beginSection("ToolbarButton.onHideAnimationEnd");
+                    mState = STATE_HIDDEN;
+                    setVisibility(View.GONE);
+                    dispatchHidden();
+                    TraceHelper.endSection();
+                }
+            }
+        }
+    };
+
+    private int mCollapseMode = COLLAPSE_MODE_LAYOUT;
+    private int mTransitionMode = TRANSITION_ANIMATED;
+    private boolean mOffsetTrackingEnabled;
+    private boolean mNestedScrollTrackingEnabled;
+    @Nullable private MetricsListener mMetricsListener;
+    @Nullable private ToolbarButtonMetrics mMetrics;
+    private int mHysteresis;
+    private long mShowStartDelay;
+    private long mHideStartDelay;
+    private boolean mPredictiveShowEnabled;
+    // Bumped whenever a setting the Behavior depends on changes
+    private int mConfigGeneration;
+    private int mVisibleHeight = -1;
+    private final Rect mVisibleRect = new Rect();
+    // Whether we put the button on a hardware layer for the running transition
+    private boolean mTransitionLayer;
+    private boolean mTransitionLayerAllowed = true;
 
-    private boolean mIsHiding;
+    // Width measured for the current text and width spec, reused while only the height changes
+    private boolean mMeasureCacheEnabled = true;
+    private boolean mMeasureCacheValid;
+    private int mCachedWidthMeasureSpec;
+    private int mCachedMeasuredWidthAndState;
+    private boolean mHeightOnlyLayoutRequest;
+    // Whether the layout size was set by the Behavior rather than the app, only then it's saved
+    private boolean mLayoutSizeApplied;
+
+    // Text size for every height, only set while auto-fit is enabled
+    @Nullable private TextSizeTable mAutoFitTable;
+    private float mAutoFitMinTextSize;
+    private float mAutoFitMaxTextSize;
+    // Width the label can take, from the last width measure spec
+    private int mAutoFitWidth = -1;
 
     public ToolbarButton(Context context) {
         this(context, null);
@@ -70,14 +195,562 @@ public class ToolbarButton extends Button {
     public ToolbarButton(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
+        final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.ToolbarButton, defStyleAttr, 0);
+        final ToolbarButtonConfig config = ToolbarButtonConfig.obtain(context, a);
+        mCollapseMode = config.collapseMode;
+        mTransitionMode = config.transitionMode;
+        mHysteresis = config.hysteresis;
+        mAnimator = config.createAnimator();
+
+        final int iconResId = a.getResourceId(R.styleable.ToolbarButton_toolbarButtonIcon, 0);
+        if (iconResId != 0) {
+            setIcon(iconResId, a.getDimensionPixelSize(R.styleable.ToolbarButton_toolbarButtonIconSize,
+                    getDefaultIconSize()));
+        }
+
         // Hide if there's no visibility attribute
-        if (attrs.getAttributeValue(XMLNS_ANDROID, "visibility") == null) {
+        if (!a.hasValue(R.styleable.ToolbarButton_android_visibility)) {
             setVisibility(GONE);
         }
 
         // Add elevation if it's not set
-        if (Build.VERSION.SDK_INT >= 21 && attrs.getAttributeValue(XMLNS_ANDROID, "elevation") == null) {
-            setElevation(R.dimen.toolbar_button_elevation);
+        if (!a.hasValue(R.styleable.ToolbarButton_android_elevation)) {
+            final float elevation = getResources().getDimension(R.dimen.toolbar_button_elevation);
+            if (Build.VERSION.SDK_INT >= 21) {
+                setElevation(elevation);
+            } else if (getBackground() != null) {
+                setShadowBackground(Math.round(elevation));
+            }
+        }
+        a.recycle();
+
+        // Keep an outline provider set by the app, its outline won't follow the clip bounds though
+        if (Build.VERSION.SDK_INT >= 21 && getOutlineProvider() == ViewOutlineProvider.BACKGROUND) {
+            setOutlineProvider(VisibleRectOutlineProvider.INSTANCE);
+        }
+    }
+
+    /**
+     * Wraps the background in a {@link ShadowDrawable}, keeping the padding the button already
+     * has and adding the shadow under it.
+     */
+    @SuppressWarnings("deprecation")
+    private void setShadowBackground(int shadowSize) {
+        final Drawable background = getBackground();
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        final int paddingRight = getPaddingRight();
+        final int paddingBottom = getPaddingBottom();
+
+        // Detach the background first, replacing it would clear the callback the wrapper sets
+        setBackgroundDrawable(null);
+        setBackgroundDrawable(new ShadowDrawable(background, shadowSize));
+
+        // Setting a background resets the padding to the background's own before API 21
+        setPadding(paddingLeft, paddingTop, paddingRight, paddingBottom + shadowSize);
+    }
+
+    TopInsetResolver getTopInsetResolver() {
+        return mTopInsetResolver;
+    }
+
+    /**
+     * Enables or disables systrace/Perfetto sections around the work done by all ToolbarButtons
+     * and their Behaviors. Off by default, costs a static flag check per section when off.
+     * Requires API 18+.
+     */
+    public static void setTraceEnabled(boolean enabled) {
+        TraceHelper.setEnabled(enabled);
+    }
+
+    /**
+     * Sets the animator running the show/hide transitions. Defaults to a
+     * {@link SpringToolbarButtonAnimator}, which keeps its velocity when a transition is reversed
+     * halfway. A running transition is handed over to the new animator.
+     */
+    public void setVisibilityAnimator(@NonNull ToolbarButtonAnimator animator) {
+        if (mAnimator == animator) {
+            return;
+        }
+
+        mAnimator.cancel(this);
+        mAnimator = animator;
+        if (mState == STATE_SHOWING) {
+            mAnimator.animateTo(this, true, 0, mAnimatorCallback);
+        } else if (mState == STATE_HIDING) {
+            mAnimator.animateTo(this, false, 0, mAnimatorCallback);
+        }
+    }
+
+    /**
+     * Returns the animator running the show/hide transitions.
+     */
+    @NonNull
+    public ToolbarButtonAnimator getVisibilityAnimator() {
+        return mAnimator;
+    }
+
+    /**
+     * Sets how the button follows the toolbar height while it collapses.
+     *
+     * @param collapseMode {@link #COLLAPSE_MODE_LAYOUT} or {@link #COLLAPSE_MODE_CLIP}
+     */
+    public void setCollapseMode(int collapseMode) {
+        if (mCollapseMode == collapseMode) {
+            return;
+        }
+
+        mCollapseMode = collapseMode;
+        onConfigChanged();
+        if (Build.VERSION.SDK_INT >= 18 && collapseMode != COLLAPSE_MODE_CLIP) {
+            mVisibleHeight = -1;
+            setClipBounds(null);
+            setTranslationY(0f);
+            if (Build.VERSION.SDK_INT >= 21) {
+                invalidateOutline();
+            }
+        }
+    }
+
+    /**
+     * Returns how the button follows the toolbar height while it collapses.
+     */
+    public int getCollapseMode() {
+        return mCollapseMode;
+    }
+
+    /**
+     * Sets how the button transitions between hidden and shown as the toolbar collapses.
+     *
+     * @param transitionMode {@link #TRANSITION_ANIMATED} or {@link #TRANSITION_SCRUBBED}
+     */
+    public void setTransitionMode(int transitionMode) {
+        if (mTransitionMode != transitionMode) {
+            mTransitionMode = transitionMode;
+            onConfigChanged();
+        }
+    }
+
+    /**
+     * Returns how the button transitions between hidden and shown as the toolbar collapses.
+     */
+    public int getTransitionMode() {
+        return mTransitionMode;
+    }
+
+    /**
+     * Sets how far, in pixels, the toolbar has to expand back past the show threshold before a
+     * shown button is hidden again. Keeps the button from flickering when the user drags slowly
+     * around the threshold. Defaults to 0.
+     */
+    public void setHysteresis(int hysteresis) {
+        if (mHysteresis != hysteresis) {
+            mHysteresis = hysteresis;
+            onConfigChanged();
+        }
+    }
+
+    /**
+     * Returns how far, in pixels, the toolbar has to expand back past the show threshold before a
+     * shown button is hidden again.
+     */
+    public int getHysteresis() {
+        return mHysteresis;
+    }
+
+    /**
+     * Sets whether a fling collapsing the toolbar should start the show animation early, so the
+     * button is fully shown by the time the toolbar reaches the threshold.
+     */
+    public void setPredictiveShowEnabled(boolean enabled) {
+        if (mPredictiveShowEnabled != enabled) {
+            mPredictiveShowEnabled = enabled;
+            onConfigChanged();
+        }
+    }
+
+    /**
+     * Returns whether a fling collapsing the toolbar starts the show animation early.
+     */
+    public boolean isPredictiveShowEnabled() {
+        return mPredictiveShowEnabled;
+    }
+
+    /**
+     * Sets the icon shown before the text, at 18dp.
+     *
+     * @see #setIcon(int, int)
+     */
+    public void setIcon(@DrawableRes int resId) {
+        setIcon(resId, getDefaultIconSize());
+    }
+
+    /**
+     * Sets the icon shown before the text, replacing the compound drawables.
+     *
+     * The icon is rasterized once per size into a bitmap shared by all buttons, so vector icons
+     * don't render their paths again on every frame while the button resizes.
+     *
+     * @param resId the drawable resource, or 0 to remove the icon
+     * @param size the width and height of the icon, in pixels
+     */
+    public void setIcon(@DrawableRes int resId, int size) {
+        final BitmapDrawable icon = resId != 0
+                ? new BitmapDrawable(getResources(), IconCache.getIcon(getContext(), resId, size))
+                : null;
+        TextViewCompat.setCompoundDrawablesRelativeWithIntrinsicBounds(this, icon, null, null, null);
+    }
+
+    private int getDefaultIconSize() {
+        return Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_ICON_SIZE_DP,
+                getResources().getDisplayMetrics()));
+    }
+
+    /**
+     * Sets whether the text size should shrink to fit the height of the button while the toolbar
+     * collapses. The text size when enabled is the largest one used.
+     *
+     * Text sizes are computed once for every height, and again only when the text, the typeface
+     * or the available width change.
+     *
+     * Every change of text size requests a layout pass, including in
+     * {@link #COLLAPSE_MODE_CLIP}, which otherwise collapses without any. With a wrap_content
+     * width the button is measured again as well, while a fixed width keeps its measured width.
+     */
+    public void setAutoFitTextEnabled(boolean enabled) {
+        if (enabled == (mAutoFitTable != null)) {
+            return;
+        }
+
+        if (enabled) {
+            mAutoFitMaxTextSize = getTextSize();
+            if (mAutoFitMinTextSize == 0f) {
+                mAutoFitMinTextSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP,
+                        DEFAULT_AUTO_FIT_MIN_TEXT_SIZE_SP, getResources().getDisplayMetrics());
+            }
+            mAutoFitTable = new TextSizeTable();
+        } else {
+            mAutoFitTable = null;
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, mAutoFitMaxTextSize);
+        }
+        onConfigChanged();
+    }
+
+    /**
+     * Returns whether the text size shrinks to fit the height of the button.
+     */
+    public boolean isAutoFitTextEnabled() {
+        return mAutoFitTable != null;
+    }
+
+    /**
+     * Sets the smallest text size, in pixels, auto-fit goes down to. Defaults to 12sp.
+     */
+    public void setAutoFitMinTextSize(float minTextSize) {
+        if (mAutoFitMinTextSize != minTextSize) {
+            mAutoFitMinTextSize = minTextSize;
+            invalidateAutoFit();
+            onConfigChanged();
+        }
+    }
+
+    /**
+     * Sets the text size fitting the given height, with a single lookup into the precomputed
+     * text sizes.
+     */
+    void fitTextToHeight(int height) {
+        if (mAutoFitTable == null || mAutoFitWidth < 0) {
+            // Not enabled, or not measured yet
+            return;
+        }
+
+        if (!mAutoFitTable.isValid()) {
+            TraceHelper.beginSection("ToolbarButton.buildTextSizeTable");
+            final TransformationMethod transformation = getTransformationMethod();
+            final CharSequence text = transformation != null
+                    ? transformation.getTransformation(getText(), this) : getText();
+            mAutoFitTable.build(text, getPaint(), mAutoFitWidth, mAutoFitMinTextSize, mAutoFitMaxTextSize);
+            TraceHelper.endSection();
+        }
+
+        final float textSize = mAutoFitTable.getTextSize(height - getCompoundPaddingTop() - getCompoundPaddingBottom());
+        if (textSize != getTextSize()) {
+            // A fixed width doesn't depend on the text size, so the measured one is kept. The
+            // text layout itself is rebuilt by TextView when drawing
+            setHeightOnlyLayoutRequest(mMeasureCacheValid
+                    && MeasureSpec.getMode(mCachedWidthMeasureSpec) == MeasureSpec.EXACTLY);
+            setTextSize(TypedValue.COMPLEX_UNIT_PX, textSize);
+            setHeightOnlyLayoutRequest(false);
+        }
+    }
+
+    private void invalidateAutoFit() {
+        if (mAutoFitTable != null) {
+            mAutoFitTable.invalidate();
+        }
+    }
+
+    /**
+     * Sets whether the button should follow the AppBarLayout through its
+     * {@link AppBarLayout.OnOffsetChangedListener offset changes}, rather than only through the
+     * CoordinatorLayout dependent view callbacks. Offset changes are applied as they happen, so
+     * the button follows the AppBarLayout in the frame it moved.
+     */
+    public void setOffsetTrackingEnabled(boolean enabled) {
+        mOffsetTrackingEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the button follows the AppBarLayout through its offset changes.
+     */
+    public boolean isOffsetTrackingEnabled() {
+        return mOffsetTrackingEnabled;
+    }
+
+    /**
+     * Sets whether the button should follow the nested scrolls moving the AppBarLayout, so it's
+     * updated in the same frame as the toolbar rather than once the toolbar moved. The position of
+     * the toolbar is predicted from the scroll, and corrected once it actually moved.
+     */
+    public void setNestedScrollTrackingEnabled(boolean enabled) {
+        mNestedScrollTrackingEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the button follows the nested scrolls moving the AppBarLayout.
+     */
+    public boolean isNestedScrollTrackingEnabled() {
+        return mNestedScrollTrackingEnabled;
+    }
+
+    /**
+     * Delays the show/hide animations, used by {@link ToolbarButtonGroup} to stagger its buttons.
+     */
+    void setTransitionStartDelays(long showStartDelay, long hideStartDelay) {
+        mShowStartDelay = showStartDelay;
+        mHideStartDelay = hideStartDelay;
+    }
+
+    int getConfigGeneration() {
+        return mConfigGeneration;
+    }
+
+    private void onConfigChanged() {
+        mConfigGeneration++;
+        final ViewParent parent = getParent();
+        if (parent instanceof ToolbarButtonGroup) {
+            ((ToolbarButtonGroup) parent).onButtonConfigChanged();
+        }
+    }
+
+    boolean isClipCollapseEnabled() {
+        return mCollapseMode == COLLAPSE_MODE_CLIP && Build.VERSION.SDK_INT >= 18;
+    }
+
+    /**
+     * Clips the button to the given height, centered on its laid out bounds, and translates it so
+     * the visible part starts at the top of its layout.
+     */
+    @TargetApi(18)
+    void setVisibleHeight(int visibleHeight) {
+        if (mVisibleHeight == visibleHeight) {
+            return;
+        }
+
+        mVisibleHeight = visibleHeight;
+        updateVisibleRect();
+    }
+
+    @TargetApi(18)
+    private void updateVisibleRect() {
+        final int height = getHeight();
+        if (mVisibleHeight < 0 || height == 0) {
+            return;
+        }
+
+        final int top = Math.max(0, (height - mVisibleHeight) / 2);
+        mVisibleRect.set(0, top, getWidth(), Math.min(height, top + mVisibleHeight));
+        // setClipBounds() copies into the rect it already holds
+        setClipBounds(mVisibleRect);
+        setTranslationY(-top);
+
+        if (Build.VERSION.SDK_INT >= 21) {
+            invalidateOutline();
+        }
+    }
+
+    /**
+     * In clip mode, the part of the button clipped away is still laid out and would take the
+     * touches landing on it, over the toolbar or the scrolling content. Gestures are only taken
+     * when they start in the visible rect.
+     */
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN && mVisibleHeight >= 0
+                && isClipCollapseEnabled()
+                && !mVisibleRect.contains((int) event.getX(), (int) event.getY())) {
+            return false;
+        }
+        return super.dispatchTouchEvent(event);
+    }
+
+    /**
+     * Sets a listener to be notified of the runtime cost of the button. Metrics are only
+     * collected while a listener is set.
+     *
+     * @param listener the listener to notify, or null to stop collecting metrics
+     */
+    public void setMetricsListener(@Nullable MetricsListener listener) {
+        mMetricsListener = listener;
+        if (listener == null) {
+            mMetrics = null;
+        } else if (mMetrics == null) {
+            mMetrics = new ToolbarButtonMetrics(this);
+        }
+    }
+
+    /**
+     * Returns the metrics collected so far, or null if no {@link MetricsListener} is set.
+     */
+    @Nullable
+    public ToolbarButtonMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    void dispatchFrameDeadlineMissed(long workNanos) {
+        if (mMetricsListener != null) {
+            mMetricsListener.onFrameDeadlineMissed(this, workNanos);
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        super.requestLayout();
+        // Also called from the View constructor, before our fields are set
+        if (mMetrics != null) {
+            mMetrics.recordLayoutRequest();
+        }
+        if (!mHeightOnlyLayoutRequest) {
+            // Anything but the Behavior changing our height may change our width
+            mMeasureCacheValid = false;
+        }
+    }
+
+    /**
+     * Marks the layout requests made until it's cleared as only changing the height of the
+     * button, so they keep the measured width.
+     */
+    void setHeightOnlyLayoutRequest(boolean heightOnly) {
+        mHeightOnlyLayoutRequest = heightOnly;
+    }
+
+    /**
+     * Sets whether the measured width is reused while only the height changes. Only turned off to
+     * compare against measuring every time.
+     */
+    void setMeasureCacheEnabled(boolean enabled) {
+        mMeasureCacheEnabled = enabled;
+        mMeasureCacheValid = false;
+    }
+
+    /**
+     * Marks the top margin and height as set by the Behavior, so they're saved with the state.
+    void setLayoutSizeApplied() {
+        mLayoutSizeApplied = true;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (mMeasureCacheValid && widthMeasureSpec == mCachedWidthMeasureSpec
+                && MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.EXACTLY) {
+            // The width and the text layout don't depend on the height, skip measuring the text
+            setMeasuredDimension(mCachedMeasuredWidthAndState, MeasureSpec.getSize(heightMeasureSpec));
+            return;
+        }
+
+        TraceHelper.beginSection("ToolbarButton.onMeasure");
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        TraceHelper.endSection();
+        if (mMetrics != null) {
+            mMetrics.recordMeasure();
+        }
+
+        // The measure spec rather than the measured width, which depends on the text size
+        final int autoFitWidth = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                ? Integer.MAX_VALUE
+                : MeasureSpec.getSize(widthMeasureSpec) - getCompoundPaddingLeft() - getCompoundPaddingRight();
+        if (mAutoFitWidth != autoFitWidth) {
+            mAutoFitWidth = autoFitWidth;
+            invalidateAutoFit();
+        }
+
+        mCachedWidthMeasureSpec = widthMeasureSpec;
+        mCachedMeasuredWidthAndState = getMeasuredWidthAndState();
+        mMeasureCacheValid = mMeasureCacheEnabled;
+    }
+
+    @Override
+    protected void onTextChanged(CharSequence text, int start, int lengthBefore, int lengthAfter) {
+        super.onTextChanged(text, start, lengthBefore, lengthAfter);
+        mMeasureCacheValid = false;
+        // Also called from the TextView constructor, before our fields are set
+        invalidateAutoFit();
+    }
+
+    @Override
+    public void setTypeface(Typeface tf) {
+        super.setTypeface(tf);
+        invalidateAutoFit();
+    }
+
+    @Override
+    public Parcelable onSaveInstanceState() {
+        final SavedState ss = new SavedState(super.onSaveInstanceState());
+        // A running transition is saved as where it's going
+        ss.shown = isOrWillBeShown();
+        if (mLayoutSizeApplied && getLayoutParams() instanceof ViewGroup.MarginLayoutParams) {
+            // Otherwise the margin is the app's, not an inset
+            final ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) getLayoutParams();
+            ss.layoutSizeApplied = true;
+            ss.height = params.height;
+            ss.inset = params.topMargin;
+        }
+        ss.visibleHeight = mVisibleHeight;
+        return ss;
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        final SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+
+        // Come back as the Behavior last left the button, before the first layout, so it finds
+        // nothing to change or animate
+        jumpToState(ss.shown);
+        if (ss.layoutSizeApplied && getLayoutParams() instanceof ViewGroup.MarginLayoutParams) {
+            CollapsingBehavior.setLayoutSize(this, ss.inset, ss.height);
+            if (ss.inset > 0) {
+                mTopInsetResolver.seed(ss.inset);
+            }
+        }
+        if (ss.visibleHeight >= 0 && isClipCollapseEnabled()) {
+            setVisibleHeight(ss.visibleHeight);
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (isClipCollapseEnabled()) {
+            updateVisibleRect();
+        } else {
+            // Resized while animating, the layer would be rendered again on every frame
+            endTransitionLayer();
         }
     }
 
@@ -96,43 +769,40 @@ public class ToolbarButton extends Button {
      * @param listener the listener to notify when this view is shown
      */
     public void show(@Nullable final OnVisibilityChangedListener listener) {
-        if (mIsHiding || getVisibility() != View.VISIBLE) {
-            if (ViewCompat.isLaidOut(this) && !isInEditMode()) {
-                animate().cancel();
-                if (getVisibility() != View.VISIBLE) {
-                    // If the view isn't visible currently, we'll animate it from a single pixel
-                    setAlpha(0f);
-                    setScaleY(0f);
-                    setScaleX(0f);
-                }
-                animate()
-                        .scaleX(1f)
-                        .scaleY(1f)
-                        .alpha(1f)
-                        .setDuration(SHOW_HIDE_ANIM_DURATION)
-                        .setInterpolator(LINEAR_OUT_SLOW_IN_INTERPOLATOR)
-                        .setListener(new AnimatorListenerAdapter() {
-                            @Override
-                            public void onAnimationStart(Animator animation) {
-                                setVisibility(View.VISIBLE);
-                            }
-
-                            @Override
-                            public void onAnimationEnd(Animator animation) {
-                                if (listener != null) {
-                                    listener.onShown(ToolbarButton.this);
-                                }
-                            }
-                        });
+        final int state = getState();
+        if (state == STATE_SHOWN || state == STATE_SHOWING) {
+            // A show animation is in progress, or we're already shown. Don't restart anything
+            if (state == STATE_SHOWING && listener != null) {
+                mPendingListener = listener;
+            }
+            return;
+        }
+
+        mState = STATE_SHOWING;
+        mPendingListener = listener;
+
+        if (ViewCompat.isLaidOut(this) && !isInEditMode()) {
+            if (state == STATE_HIDING) {
+                // Reverse from wherever the hide animation got to
+                interruptAnimation(TRACE_HIDE_ANIMATION);
             } else {
-                setVisibility(View.VISIBLE);
-                setAlpha(1f);
-                setScaleY(1f);
-                setScaleX(1f);
-                if (listener != null) {
-                    listener.onShown(this);
-                }
+                // If the view isn't visible currently, we'll animate it from a single pixel
+                setAlpha(0f);
+                setScaleY(0f);
+                setScaleX(0f);
             }
+            setVisibility(View.VISIBLE);
+            startShowAnimation();
+        } else {
+            if (state == STATE_HIDING) {
+                cancelAnimation(TRACE_HIDE_ANIMATION);
+            }
+            mState = STATE_SHOWN;
+            setVisibility(View.VISIBLE);
+            setAlpha(1f);
+            setScaleY(1f);
+            setScaleX(1f);
+            dispatchShown();
         }
     }
 
@@ -145,7 +815,8 @@ public class ToolbarButton extends Button {
     }
 
     private void hide(@Nullable final OnVisibilityChangedListener listener) {
-        if (mIsHiding || getVisibility() != View.VISIBLE) {
+        final int state = getState();
+        if (state == STATE_HIDDEN || state == STATE_HIDING) {
             // A hide animation is in progress, or we're already hidden. Skip the call
             if (listener != null) {
                 listener.onHidden(this);
@@ -153,55 +824,275 @@ public class ToolbarButton extends Button {
             return;
         }
 
+        mState = STATE_HIDING;
+        mPendingListener = listener;
+
         if (!ViewCompat.isLaidOut(this) || isInEditMode()) {
             // If the view isn't laid out, or we're in the editor, don't run the animation
+            if (state == STATE_SHOWING) {
+                cancelAnimation(TRACE_SHOW_ANIMATION);
+            }
+            mState = STATE_HIDDEN;
             setVisibility(View.GONE);
-            if (listener != null) {
-                listener.onHidden(this);
+            dispatchHidden();
+        } else {
+            if (state == STATE_SHOWING) {
+                // Reverse from wherever the show animation got to
+                interruptAnimation(TRACE_SHOW_ANIMATION);
             }
+            startHideAnimation();
+        }
+    }
+
+    private void startShowAnimation() {
+        if (mMetrics != null) {
+            mMetrics.recordAnimationStart();
+        }
+        TraceHelper.beginSection("ToolbarButton.startShowAnimation");
+        TraceHelper.beginAsyncSection(TRACE_SHOW_ANIMATION, mTraceCookie);
+        beginTransitionLayer();
+        mAnimator.animateTo(this, true, mShowStartDelay, mAnimatorCallback);
+        TraceHelper.endSection();
+    }
+
+    private void startHideAnimation() {
+        if (mMetrics != null) {
+            mMetrics.recordAnimationStart();
+        }
+        TraceHelper.beginSection("ToolbarButton.startHideAnimation");
+        TraceHelper.beginAsyncSection(TRACE_HIDE_ANIMATION, mTraceCookie);
+        beginTransitionLayer();
+        mAnimator.animateTo(this, false, mHideStartDelay, mAnimatorCallback);
+        TraceHelper.endSection();
+    }
+
+    private void cancelAnimation(String traceSection) {
+        interruptAnimation(traceSection);
+        mAnimator.cancel(this);
+        endTransitionLayer();
+    }
+
+    /**
+     * Renders the button into a hardware layer while it's animated, so the animated scale and
+     * alpha only composite the layer instead of drawing the background, text and icon again into
+     * an offscreen buffer on every frame. Leaves a layer type set by the app alone.
+     *
+     * Only done while the size of the button is stable, as a resized layer is rendered again.
+     */
+    private void beginTransitionLayer() {
+        if (mTransitionLayerAllowed && !mTransitionLayer && isHardwareAccelerated()
+                && getLayerType() == LAYER_TYPE_NONE) {
+            mTransitionLayer = true;
+            setLayerType(LAYER_TYPE_HARDWARE, null);
+        }
+    }
+
+    private void endTransitionLayer() {
+        if (mTransitionLayer) {
+            mTransitionLayer = false;
+            setLayerType(LAYER_TYPE_NONE, null);
+        }
+    }
+
+    /**
+     * Sets whether the transitions started from now on may use a hardware layer. Cleared by the
+     * Behavior around the shows it resizes the button through.
+     */
+    void setTransitionLayerAllowed(boolean allowed) {
+        mTransitionLayerAllowed = allowed;
+    }
+
+    /**
+     * Accounts for a transition that won't report its end, either cancelled or about to be
+     * reversed. A reversed transition keeps the animator running and only changes its target.
+     */
+    private void interruptAnimation(String traceSection) {
+        if (mMetrics != null) {
+            mMetrics.recordAnimationCancel();
+        }
+        TraceHelper.endAsyncSection(traceSection, mTraceCookie);
+    }
+
+    /**
+     * Sets the scale and alpha of the button directly from the toolbar collapse, for
+     * {@link #TRANSITION_SCRUBBED}.
+     *
+     * @param progress 0 when hidden, 1 when fully shown
+     */
+    void setTransitionProgress(float progress) {
+        final int state = getState();
+        if (state == STATE_SHOWING || state == STATE_HIDING) {
+            // Take over from a running settle animation
+            mState = progress > 0f ? STATE_SHOWN : STATE_HIDDEN;
+            mPendingListener = null;
+            cancelAnimation(state == STATE_SHOWING ? TRACE_SHOW_ANIMATION : TRACE_HIDE_ANIMATION);
+        }
+
+        setScaleX(progress);
+        setScaleY(progress);
+        setAlpha(progress);
+
+        final int visibility = progress > 0f ? View.VISIBLE : View.GONE;
+        if (getVisibility() != visibility) {
+            setVisibility(visibility);
+        }
+    }
+
+    /**
+     * Animates a partially scrubbed transition to whichever end state is closest.
+     */
+    void settleTransition() {
+        if (getState() != STATE_SHOWN || getAlpha() >= 1f) {
+            return;
+        }
+
+        if (getAlpha() >= 0.5f) {
+            mState = STATE_SHOWING;
+            startShowAnimation();
+        } else {
+            hide();
+        }
+    }
+
+    /**
+     * Shows or hides the button without any animation, ending a running one.
+     */
+    void jumpToState(boolean shown) {
+        final int state = getState();
+        if (state == STATE_SHOWING || state == STATE_HIDING) {
+            cancelAnimation(state == STATE_SHOWING ? TRACE_SHOW_ANIMATION : TRACE_HIDE_ANIMATION);
+        } else if (state == (shown ? STATE_SHOWN : STATE_HIDDEN)) {
+            return;
+        }
+
+        mState = shown ? STATE_SHOWN : STATE_HIDDEN;
+        if (shown) {
+            setAlpha(1f);
+            setScaleY(1f);
+            setScaleX(1f);
+            setVisibility(View.VISIBLE);
+            dispatchShown();
         } else {
-            animate().cancel();
-            animate().scaleX(0.0F)
-                    .scaleY(0.0F)
-                    .alpha(0.0F)
-                    .setDuration(SHOW_HIDE_ANIM_DURATION)
-                    .setInterpolator(FAST_OUT_LINEAR_IN_INTERPOLATOR)
-                    .setListener(new AnimatorListenerAdapter() {
-                        private boolean mCancelled;
-
-                        @Override
-                        public void onAnimationStart(Animator animation) {
-                            mIsHiding = true;
-                            mCancelled = false;
-                            setVisibility(View.VISIBLE);
-                        }
-
-                        @Override
-                        public void onAnimationCancel(Animator animation) {
-                            mIsHiding = false;
-                            mCancelled = true;
-                        }
-
-                        @Override
-                        public void onAnimationEnd(Animator animation) {
-                            mIsHiding = false;
-                            if (!mCancelled) {
-                                setVisibility(View.GONE);
-                                if (listener != null) {
-                                    listener.onHidden(ToolbarButton.this);
-                                }
-                            }
-                        }
-                    });
+            setVisibility(View.GONE);
+            dispatchHidden();
+        }
+    }
+
+    boolean isOrWillBeShown() {
+        final int state = getState();
+        return state == STATE_SHOWN || state == STATE_SHOWING;
+    }
+
+    /**
+     * Returns the current visibility state. The settled states are resolved from the view
+     * visibility, in case it was changed directly through {@link #setVisibility(int)}.
+     */
+    private int getState() {
+        if (mState == STATE_SHOWING || mState == STATE_HIDING) {
+            return mState;
+        }
+        return getVisibility() == View.VISIBLE ? STATE_SHOWN : STATE_HIDDEN;
+    }
+
+    private void dispatchShown() {
+        final OnVisibilityChangedListener listener = mPendingListener;
+        mPendingListener = null;
+        if (listener != null) {
+            listener.onShown(this);
+        }
+    }
+
+    private void dispatchHidden() {
+        final OnVisibilityChangedListener listener = mPendingListener;
+        mPendingListener = null;
+        if (listener != null) {
+            listener.onHidden(this);
+        }
+    }
+
+    /**
+     * Rectangular outline matching the visible part of the button, like its backgrounds, so in clip
+     * mode the shadow follows the toolbar height without a layout pass. The background is only
+     * asked for its alpha, and whether it has an outline at all, like a borderless ripple doesn't.
+     * As with {@link ViewOutlineProvider#BACKGROUND}, a button without background casts no shadow.
+     */
+    @TargetApi(21)
+    private static class VisibleRectOutlineProvider extends ViewOutlineProvider {
+        static final VisibleRectOutlineProvider INSTANCE = new VisibleRectOutlineProvider();
+
+        @Override
+        public void getOutline(View view, Outline outline) {
+            final Drawable background = view.getBackground();
+            float alpha = 0f;
+            if (background != null) {
+                background.getOutline(outline);
+                if (outline.isEmpty()) {
+                    return;
+                }
+                alpha = outline.getAlpha();
+            }
+
+            final ToolbarButton button = (ToolbarButton) view;
+            if (button.mVisibleHeight < 0) {
+                outline.setRect(0, 0, view.getWidth(), view.getHeight());
+            } else {
+                outline.setRect(button.mVisibleRect);
+            }
+            outline.setAlpha(alpha);
         }
     }
 
+    /**
+     * State of a ToolbarButton saved along with its view hierarchy, as the Behavior last left it.
+     */
+    static class SavedState extends BaseSavedState {
+        boolean shown;
+        boolean layoutSizeApplied;
+        int height;
+        int inset;
+        int visibleHeight;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            shown = in.readInt() != 0;
+            layoutSizeApplied = in.readInt() != 0;
+            height = in.readInt();
+            inset = in.readInt();
+            visibleHeight = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(shown ? 1 : 0);
+            out.writeInt(layoutSizeApplied ? 1 : 0);
+            out.writeInt(height);
+            out.writeInt(inset);
+            out.writeInt(visibleHeight);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
     /**
      * Behavior designed for use with {@link ToolbarButton} instances. It's main function
      * is to show/hide {@link ToolbarButton} views based on the layout they are associated with.
      */
-    public static class Behavior extends CoordinatorLayout.Behavior<ToolbarButton> {
-        private Rect mTmpRect;
+    public static class Behavior extends CollapsingBehavior<ToolbarButton> {
 
         public Behavior() {
         }
@@ -209,51 +1100,74 @@ public class ToolbarButton extends Button {
         public Behavior(Context context, AttributeSet attrs) {
         }
 
-        public boolean layoutDependsOn(CoordinatorLayout parent, ToolbarButton child, View dependency) {
-            return dependency instanceof AppBarLayout;
+        @Override
+        TopInsetResolver getTopInsetResolver(ToolbarButton child) {
+            return child.getTopInsetResolver();
         }
 
-        public boolean onDependentViewChanged(CoordinatorLayout parent, ToolbarButton child, View dependency) {
-            if (dependency instanceof AppBarLayout) {
-                this.updateButtonVisibility(parent, (AppBarLayout) dependency, child);
-            }
+        @Override
+        boolean isOffsetTrackingEnabled(ToolbarButton child) {
+            return child.isOffsetTrackingEnabled();
+        }
 
-            return false;
+        @Override
+        int getConfigGeneration(ToolbarButton child) {
+            return child.getConfigGeneration();
         }
 
-        private boolean updateButtonVisibility(CoordinatorLayout parent, AppBarLayout appBarLayout, final ToolbarButton child) {
-            CoordinatorLayout.LayoutParams lp = (CoordinatorLayout.LayoutParams) child.getLayoutParams();
+        @Override
+        boolean isRecordingMetrics(ToolbarButton child) {
+            return child.getMetrics() != null;
+        }
 
-            if (lp.getAnchorId() != appBarLayout.getId()) {
-                // The anchor ID doesn't match the dependency, so we won't automatically
-                // show/hide the button
-                return false;
-            }
+        @Override
+        void recordBehaviorTime(ToolbarButton child, long startNanos, long endNanos) {
+            child.getMetrics().recordBehaviorTime(startNanos, endNanos);
+        }
 
-            if (mTmpRect == null) {
-                mTmpRect = new Rect();
-            }
+        @Override
+        boolean needsNestedScroll(ToolbarButton child) {
+            return child.getTransitionMode() == TRANSITION_SCRUBBED || child.isPredictiveShowEnabled();
+        }
 
-            final Rect rect = mTmpRect;
-            CollapsingToolbarHelper.getDescendantRect(parent, appBarLayout, rect);
+        @Override
+        boolean isPredictiveShowEnabled(ToolbarButton child) {
+            return child.isPredictiveShowEnabled() && child.getTransitionMode() == TRANSITION_ANIMATED;
+        }
 
-            // Hide show code logic borrowed from Android Support Library Floating Action Button
-            if (rect.bottom <= CollapsingToolbarHelper.getMinimumHeightForVisibleOverlappingContent(appBarLayout)) {
-                child.show();
+        @Override
+        long getShowDuration(ToolbarButton child) {
+            return child.getVisibilityAnimator().getDuration();
+        }
 
-                // Height should equal toolbar height
-                // If android:fitsSystemWindows="true" is enabled, add appropriate top margin
-                final int inset = CollapsingToolbarHelper.getTopInset(appBarLayout);
-                ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) child.getLayoutParams();
-                params.topMargin = inset;
-                params.height = rect.bottom - inset;
-                child.setLayoutParams(params);
+        @Override
+        boolean isNestedScrollTrackingEnabled(ToolbarButton child) {
+            return child.isNestedScrollTrackingEnabled();
+        }
 
-            } else {
-                child.hide();
+        @Override
+        void settle(ToolbarButton child) {
+            if (child.getTransitionMode() == TRANSITION_SCRUBBED) {
+                child.settleTransition();
             }
-            return true;
+        }
 
+        @Override
+        void apply(ToolbarButton child, int bottom, int inset, int threshold) {
+            if (applyVisibility(child, bottom, inset, threshold)) {
+                // Height should equal toolbar height
+                // If android:fitsSystemWindows="true" is enabled, add appropriate top margin
+                final int height = getToolbarHeight(bottom, inset, threshold);
+                child.fitTextToHeight(height);
+                if (child.isClipCollapseEnabled()) {
+                    // Lay out once at the tallest height of the collapsed band, then follow the
+                    // toolbar through the clip bounds only
+                    setLayoutSize(child, inset, threshold - inset);
+                    child.setVisibleHeight(height);
+                } else {
+                    setLayoutSize(child, inset, height);
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
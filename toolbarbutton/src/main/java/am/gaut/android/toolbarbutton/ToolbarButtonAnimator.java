@@ -0,0 +1,46 @@
+package am.gaut.android.toolbarbutton;
+
+/**
+ * Animates a {@link ToolbarButton} between hidden and shown. Hidden is a scale and alpha of 0,
+ * shown a scale and alpha of 1.
+ *
+ * An animator instance belongs to a single button. While a transition is running, a call to
+ * {@link #animateTo} with the other target reverses it from where it is rather than starting over.
+ *
+ * @see SpringToolbarButtonAnimator
+ * @see TimedToolbarButtonAnimator
+ */
+public interface ToolbarButtonAnimator {
+
+    /**
+     * Callback to be invoked when a transition reaches its target.
+     */
+    interface Callback {
+        /**
+         * @param button the button that was animated
+         * @param shown whether the button reached shown or hidden
+         */
+        void onTransitionEnd(ToolbarButton button, boolean shown);
+    }
+
+    /**
+     * Animates the button towards shown or hidden, starting from its current scale and alpha.
+     * Only the transition reaching its target notifies the callback, not the ones it reversed.
+     *
+     * @param button the button to animate
+     * @param shown whether to animate towards shown or hidden
+     * @param startDelay delay, in milliseconds, before the transition starts
+     * @param callback the callback to notify once the target is reached
+     */
+    void animateTo(ToolbarButton button, boolean shown, long startDelay, Callback callback);
+
+    /**
+     * Stops the running transition, if any, where it is. The callback isn't notified.
+     */
+    void cancel(ToolbarButton button);
+
+    /**
+     * Returns about how long, in milliseconds, a transition from hidden to shown takes.
+     */
+    long getDuration();
+}
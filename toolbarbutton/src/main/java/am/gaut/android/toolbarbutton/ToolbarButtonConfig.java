@@ -0,0 +1,122 @@
+package am.gaut.android.toolbarbutton;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
+
+import java.util.HashMap;
+
+/**
+ * Settings of a {@link ToolbarButton} read from its {@code ToolbarButton} styleable.
+ *
+ * Configs are immutable and interned, so buttons inflated with the same attributes share a single
+ * instance and its interpolators are only loaded from XML once.
+ */
+final class ToolbarButtonConfig {
+    static final int ANIMATOR_SPRING = 0;
+    static final int ANIMATOR_TIMED = 1;
+
+    // Only touched while inflating, on the main thread
+    private static final HashMap<ToolbarButtonConfig, ToolbarButtonConfig> sConfigs = new HashMap<>();
+
+    final int collapseMode;
+    final int transitionMode;
+    final int hysteresis;
+    final int animator;
+    final int animationDuration;
+    private final int mShowInterpolatorId;
+    private final int mHideInterpolatorId;
+
+    // Loaded once the config is interned, not part of its identity
+    private Interpolator mShowInterpolator;
+    private Interpolator mHideInterpolator;
+
+    private ToolbarButtonConfig(int collapseMode, int transitionMode, int hysteresis, int animator,
+            int animationDuration, int showInterpolatorId, int hideInterpolatorId) {
+        this.collapseMode = collapseMode;
+        this.transitionMode = transitionMode;
+        this.hysteresis = hysteresis;
+        this.animator = animator;
+        this.animationDuration = animationDuration;
+        mShowInterpolatorId = showInterpolatorId;
+        mHideInterpolatorId = hideInterpolatorId;
+    }
+
+    /**
+     * Returns the shared config for the attributes of a {@code ToolbarButton} styleable.
+     */
+    static ToolbarButtonConfig obtain(Context context, TypedArray a) {
+        final ToolbarButtonConfig key = new ToolbarButtonConfig(
+                a.getInt(R.styleable.ToolbarButton_toolbarButtonCollapseMode, ToolbarButton.COLLAPSE_MODE_LAYOUT),
+                a.getInt(R.styleable.ToolbarButton_toolbarButtonTransitionMode, ToolbarButton.TRANSITION_ANIMATED),
+                a.getDimensionPixelSize(R.styleable.ToolbarButton_toolbarButtonHysteresis, 0),
+                a.getInt(R.styleable.ToolbarButton_toolbarButtonAnimator, ANIMATOR_SPRING),
+                a.getInt(R.styleable.ToolbarButton_toolbarButtonAnimationDuration,
+                        TimedToolbarButtonAnimator.DEFAULT_DURATION),
+                a.getResourceId(R.styleable.ToolbarButton_toolbarButtonShowInterpolator, 0),
+                a.getResourceId(R.styleable.ToolbarButton_toolbarButtonHideInterpolator, 0));
+
+        final ToolbarButtonConfig config = sConfigs.get(key);
+        if (config != null) {
+            return config;
+        }
+
+        key.mShowInterpolator = key.mShowInterpolatorId != 0
+                ? AnimationUtils.loadInterpolator(context, key.mShowInterpolatorId)
+                : TimedToolbarButtonAnimator.DEFAULT_SHOW_INTERPOLATOR;
+        key.mHideInterpolator = key.mHideInterpolatorId != 0
+                ? AnimationUtils.loadInterpolator(context, key.mHideInterpolatorId)
+                : TimedToolbarButtonAnimator.DEFAULT_HIDE_INTERPOLATOR;
+        sConfigs.put(key, key);
+        return key;
+    }
+
+    /**
+     * Returns how many distinct configs were interned so far.
+     */
+    static int getInternedCount() {
+        return sConfigs.size();
+    }
+
+    /**
+     * Creates the animator for a button, as animators aren't shared.
+     */
+    ToolbarButtonAnimator createAnimator() {
+        if (animator == ANIMATOR_TIMED) {
+            return new TimedToolbarButtonAnimator(animationDuration, mShowInterpolator, mHideInterpolator);
+        }
+        return new SpringToolbarButtonAnimator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ToolbarButtonConfig)) {
+            return false;
+        }
+
+        final ToolbarButtonConfig other = (ToolbarButtonConfig) o;
+        return collapseMode == other.collapseMode
+                && transitionMode == other.transitionMode
+                && hysteresis == other.hysteresis
+                && animator == other.animator
+                && animationDuration == other.animationDuration
+                && mShowInterpolatorId == other.mShowInterpolatorId
+                && mHideInterpolatorId == other.mHideInterpolatorId;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = collapseMode;
+        result = 31 * result + transitionMode;
+        result = 31 * result + hysteresis;
+        result = 31 * result + animator;
+        result = 31 * result + animationDuration;
+        result = 31 * result + mShowInterpolatorId;
+        result = 31 * result + mHideInterpolatorId;
+        return result;
+    }
+}
@@ -0,0 +1,282 @@
+package am.gaut.android.toolbarbutton;
+
+import android.content.Context;
+import android.support.design.widget.CoordinatorLayout;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.LinearLayout;
+
+import am.gaut.android.toolbarbutton.helpers.TopInsetResolver;
+
+/**
+ * Holds several {@link ToolbarButton ToolbarButtons} anchored to the same CollapsingToolbarLayout.
+ *
+ * Instead of every button computing the same AppBarLayout geometry on every frame, the group's
+ * Behavior computes it once and applies it to all the buttons in one pass, sizing the group
+ * instead of each button. Buttons should use a match_parent height.
+ *
+ * Each button keeps its own transition, hysteresis and predictive show settings. The group is only
+ * clipped instead of laid out when all of its buttons use
+ * {@link ToolbarButton#COLLAPSE_MODE_CLIP}, and follows the offset changes and nested scrolls of
+ * the AppBarLayout when any of them does.
+ */
+@CoordinatorLayout.DefaultBehavior(ToolbarButtonGroup.Behavior.class)
+public class ToolbarButtonGroup extends LinearLayout {
+
+    private final TopInsetResolver mTopInsetResolver = new TopInsetResolver();
+
+    private long mStaggerDelay;
+    // Bumped whenever a setting the Behavior depends on changes, in the group or its buttons, or
+    // buttons are added, removed or reordered
+    private int mConfigGeneration;
+    private OnHierarchyChangeListener mOnHierarchyChangeListener;
+
+    public ToolbarButtonGroup(Context context) {
+        this(context, null);
+    }
+
+    public ToolbarButtonGroup(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        setOrientation(HORIZONTAL);
+        super.setOnHierarchyChangeListener(new HierarchyChangeListener());
+    }
+
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mOnHierarchyChangeListener = listener;
+    }
+
+    /**
+     * Sets the delay, in milliseconds, between the show/hide animations of consecutive buttons.
+     * Buttons are shown from first to last and hidden from last to first. Defaults to 0.
+     */
+    public void setStaggerDelay(long staggerDelay) {
+        if (mStaggerDelay != staggerDelay) {
+            mStaggerDelay = staggerDelay;
+            mConfigGeneration++;
+        }
+    }
+
+    /**
+     * Returns the delay, in milliseconds, between the show/hide animations of consecutive buttons.
+     */
+    public long getStaggerDelay() {
+        return mStaggerDelay;
+    }
+
+    TopInsetResolver getTopInsetResolver() {
+        return mTopInsetResolver;
+    }
+
+    /**
+     * Returns a number that changes whenever the group or any of its buttons changes a setting
+     * the Behavior depends on, or the buttons of the group change.
+     */
+    int getConfigGeneration() {
+        return mConfigGeneration;
+    }
+
+    /**
+     * Called by the buttons of the group when one of their settings the Behavior depends on
+     * changes.
+     */
+    void onButtonConfigChanged() {
+        mConfigGeneration++;
+    }
+
+    /**
+     * Bumps the config generation when buttons are added or removed, which also covers reordering
+     * them, then forwards to the listener set by the app.
+     */
+    private class HierarchyChangeListener implements OnHierarchyChangeListener {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            mConfigGeneration++;
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            mConfigGeneration++;
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    }
+
+    /**
+     * Behavior designed for use with {@link ToolbarButtonGroup} instances. It shows/hides all the
+     * buttons of the group based on the layout the group is associated with.
+     */
+    public static class Behavior extends CollapsingBehavior<ToolbarButtonGroup> {
+
+        public Behavior() {
+        }
+
+        public Behavior(Context context, AttributeSet attrs) {
+        }
+
+        @Override
+        TopInsetResolver getTopInsetResolver(ToolbarButtonGroup child) {
+            return child.getTopInsetResolver();
+        }
+
+        @Override
+        boolean isOffsetTrackingEnabled(ToolbarButtonGroup child) {
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton && ((ToolbarButton) view).isOffsetTrackingEnabled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        int getConfigGeneration(ToolbarButtonGroup child) {
+            return child.getConfigGeneration();
+        }
+
+        @Override
+        boolean isRecordingMetrics(ToolbarButtonGroup child) {
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton && ((ToolbarButton) view).getMetrics() != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void recordBehaviorTime(ToolbarButtonGroup child, long startNanos, long endNanos) {
+            // The group's update is on behalf of each button, so each of them is charged with it
+            // and reports its own missed deadlines. Layout requests and animations are already
+            // recorded by the buttons themselves
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton) {
+                    final ToolbarButtonMetrics metrics = ((ToolbarButton) view).getMetrics();
+                    if (metrics != null) {
+                        metrics.recordBehaviorTime(startNanos, endNanos);
+                    }
+                }
+            }
+        }
+
+        @Override
+        boolean needsNestedScroll(ToolbarButtonGroup child) {
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton) {
+                    final ToolbarButton button = (ToolbarButton) view;
+                    if (button.getTransitionMode() == ToolbarButton.TRANSITION_SCRUBBED
+                            || button.isPredictiveShowEnabled()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean isPredictiveShowEnabled(ToolbarButtonGroup child) {
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton) {
+                    final ToolbarButton button = (ToolbarButton) view;
+                    if (button.isPredictiveShowEnabled()
+                            && button.getTransitionMode() == ToolbarButton.TRANSITION_ANIMATED) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        long getShowDuration(ToolbarButtonGroup child) {
+            // Until the last button is shown, after its stagger delay
+            final long staggerDelay = child.getStaggerDelay();
+            long duration = 0;
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton) {
+                    final long showDuration = ((ToolbarButton) view).getVisibilityAnimator().getDuration();
+                    duration = Math.max(duration, i * staggerDelay + showDuration);
+                }
+            }
+            return duration;
+        }
+
+        @Override
+        boolean isNestedScrollTrackingEnabled(ToolbarButtonGroup child) {
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton && ((ToolbarButton) view).isNestedScrollTrackingEnabled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void settle(ToolbarButtonGroup child) {
+            for (int i = 0, count = child.getChildCount(); i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton) {
+                    final ToolbarButton button = (ToolbarButton) view;
+                    if (button.getTransitionMode() == ToolbarButton.TRANSITION_SCRUBBED) {
+                        button.settleTransition();
+                    }
+                }
+            }
+        }
+
+        @Override
+        void apply(ToolbarButtonGroup child, int bottom, int inset, int threshold) {
+            final int count = child.getChildCount();
+            final long staggerDelay = child.getStaggerDelay();
+
+            boolean anyVisible = false;
+            boolean allClipped = true;
+            for (int i = 0; i < count; i++) {
+                final View view = child.getChildAt(i);
+                if (view instanceof ToolbarButton) {
+                    final ToolbarButton button = (ToolbarButton) view;
+                    button.setTransitionStartDelays(i * staggerDelay, (count - 1 - i) * staggerDelay);
+                    anyVisible |= applyVisibility(button, bottom, inset, threshold);
+                    allClipped &= button.isClipCollapseEnabled();
+                }
+            }
+
+            if (anyVisible) {
+                // Height should equal toolbar height
+                // If android:fitsSystemWindows="true" is enabled, add appropriate top margin
+                final int height = getToolbarHeight(bottom, inset, threshold);
+                for (int i = 0; i < count; i++) {
+                    final View view = child.getChildAt(i);
+                    if (view instanceof ToolbarButton) {
+                        ((ToolbarButton) view).fitTextToHeight(height);
+                    }
+                }
+                if (allClipped) {
+                    // Lay out once at the tallest height of the collapsed band, then follow the
+                    // toolbar through the clip bounds of the buttons only
+                    setLayoutSize(child, inset, threshold - inset);
+                    for (int i = 0; i < count; i++) {
+                        final View view = child.getChildAt(i);
+                        if (view instanceof ToolbarButton) {
+                            ((ToolbarButton) view).setVisibleHeight(height);
+                        }
+                    }
+                } else {
+                    setLayoutSize(child, inset, height);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package am.gaut.android.toolbarbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+/**
+ * Aggregated cost of a {@link ToolbarButton} and its Behavior, collected while a
+ * {@link ToolbarButton.MetricsListener} is set.
+ *
+ * Recording only updates primitive counters, so it doesn't allocate. Behavior time is summed per
+ * frame before being added to the histogram, frames being delimited by the Choreographer vsync on
+ * API 16+ and by the display refresh interval before that.
+ */
+public class ToolbarButtonMetrics {
+    /**
+     * Upper bounds, in nanoseconds, of the Behavior time histogram buckets. The last bucket
+     * counts everything above the last bound.
+     */
+    private static final long[] BUCKET_UPPER_BOUNDS_NANOS = {
+            50000L, 100000L, 250000L, 500000L, 1000000L, 2000000L, 4000000L, 8000000L
+    };
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    private final ToolbarButton mButton;
+    private final long mFrameIntervalNanos;
+    private final FrameAnchor mFrameAnchor;
+
+    private final long[] mBehaviorTimeHistogram = new long[BUCKET_UPPER_BOUNDS_NANOS.length + 1];
+    private long mBehaviorFrameCount;
+    private long mLayoutRequestCount;
+    private long mMeasureCount;
+    private long mAnimationStartCount;
+    private long mAnimationCancelCount;
+    private long mDeadlineMissedCount;
+
+    // Vsync time the frame grid is aligned to
+    private long mAnchorNanos;
+    // Frame the Behavior time is currently summed for
+    private long mFrameStartNanos;
+    private long mFrameWorkNanos;
+    private boolean mFrameDeadlineMissed;
+
+    ToolbarButtonMetrics(ToolbarButton button) {
+        mButton = button;
+
+        final WindowManager wm = (WindowManager) button.getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+        if (refreshRate < 1f) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        mFrameIntervalNanos = (long) (NANOS_PER_SECOND / refreshRate);
+        mFrameAnchor = Build.VERSION.SDK_INT >= 16 ? new FrameAnchor() : null;
+    }
+
+    /**
+     * Returns the number of buckets of the Behavior time histogram.
+     */
+    public int getBehaviorTimeBucketCount() {
+        return mBehaviorTimeHistogram.length;
+    }
+
+    /**
+     * Returns the upper bound, in nanoseconds, of a Behavior time histogram bucket, or
+     * {@link Long#MAX_VALUE} for the last one.
+     */
+    public long getBehaviorTimeBucketUpperBound(int bucket) {
+        return bucket < BUCKET_UPPER_BOUNDS_NANOS.length ? BUCKET_UPPER_BOUNDS_NANOS[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of frames whose Behavior time fell into the given bucket.
+     */
+    public long getBehaviorTimeBucketCount(int bucket) {
+        return mBehaviorTimeHistogram[bucket];
+    }
+
+    /**
+     * Returns the number of frames in which the Behavior did any work.
+     */
+    public long getBehaviorFrameCount() {
+        return mBehaviorFrameCount;
+    }
+
+    /**
+     * Returns the number of layout requests made by the button.
+     */
+    public long getLayoutRequestCount() {
+        return mLayoutRequestCount;
+    }
+
+    /**
+     * Returns the number of times the button measured its text, measures reusing the last width
+     * excluded.
+     */
+    public long getMeasureCount() {
+        return mMeasureCount;
+    }
+
+    /**
+     * Returns the number of show/hide animations started.
+     */
+    public long getAnimationStartCount() {
+        return mAnimationStartCount;
+    }
+
+    /**
+     * Returns the number of show/hide animations cancelled before they finished.
+     */
+    public long getAnimationCancelCount() {
+        return mAnimationCancelCount;
+    }
+
+    /**
+     * Returns the number of frames in which the Behavior was still working past the frame
+     * deadline.
+     */
+    public long getDeadlineMissedCount() {
+        return mDeadlineMissedCount;
+    }
+
+    /**
+     * Clears all the counters.
+     */
+    public void reset() {
+        for (int i = 0; i < mBehaviorTimeHistogram.length; i++) {
+            mBehaviorTimeHistogram[i] = 0;
+        }
+        mBehaviorFrameCount = 0;
+        mLayoutRequestCount = 0;
+        mMeasureCount = 0;
+        mAnimationStartCount = 0;
+        mAnimationCancelCount = 0;
+        mDeadlineMissedCount = 0;
+        mFrameStartNanos = 0;
+        mFrameWorkNanos = 0;
+        mFrameDeadlineMissed = false;
+    }
+
+    void recordLayoutRequest() {
+        mLayoutRequestCount++;
+    }
+
+    void recordMeasure() {
+        mMeasureCount++;
+    }
+
+    void recordAnimationStart() {
+        mAnimationStartCount++;
+    }
+
+    void recordAnimationCancel() {
+        mAnimationCancelCount++;
+    }
+
+    /**
+     * Adds Behavior work, timed with {@link System#nanoTime()}, to the frame it started in.
+     */
+    void recordBehaviorTime(long startNanos, long endNanos) {
+        final long frameStart = startNanos - ((startNanos - mAnchorNanos) % mFrameIntervalNanos);
+        if (frameStart != mFrameStartNanos) {
+            flushFrame();
+            mFrameStartNanos = frameStart;
+        }
+        mFrameWorkNanos += endNanos - startNanos;
+
+        if (!mFrameDeadlineMissed && endNanos > frameStart + mFrameIntervalNanos) {
+            mFrameDeadlineMissed = true;
+            mDeadlineMissedCount++;
+            mButton.dispatchFrameDeadlineMissed(mFrameWorkNanos);
+        }
+
+        if (mFrameAnchor != null) {
+            mFrameAnchor.post();
+        }
+    }
+
+    private void flushFrame() {
+        if (mFrameWorkNanos > 0) {
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_NANOS.length
+                    && mFrameWorkNanos > BUCKET_UPPER_BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            mBehaviorTimeHistogram[bucket]++;
+            mBehaviorFrameCount++;
+        }
+        mFrameWorkNanos = 0;
+        mFrameDeadlineMissed = false;
+    }
+
+    /**
+     * Realigns the frame grid on the actual vsync of the frame after some Behavior work, and
+     * closes the frame that work was summed for.
+     */
+    @TargetApi(16)
+    private class FrameAnchor implements Choreographer.FrameCallback {
+        private boolean mPosted;
+
+        void post() {
+            if (!mPosted) {
+                mPosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mPosted = false;
+            mAnchorNanos = frameTimeNanos;
+            if (frameTimeNanos - mFrameStartNanos >= mFrameIntervalNanos / 2) {
+                flushFrame();
+                mFrameStartNanos = frameTimeNanos;
+            }
+        }
+    }
+}
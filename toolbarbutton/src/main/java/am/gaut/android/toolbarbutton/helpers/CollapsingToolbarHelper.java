@@ -11,17 +11,27 @@ import android.view.ViewParent;
 /**
  * Need to duplicate code here because folks at Google decided to make their classes and methods
  * private.
+ *
+ * The geometry methods hold preallocated scratch objects, so each Behavior owns its own instance
+ * and the per-frame path doesn't allocate.
  */
 public class CollapsingToolbarHelper {
-    private static final ThreadLocal<Matrix> sMatrix = new ThreadLocal<>();
-    private static final ThreadLocal<RectF> sRectF = new ThreadLocal<>();
-    private static final Matrix IDENTITY = new Matrix();
+    private final Matrix mMatrix = new Matrix();
+    private final RectF mRectF = new RectF();
+    private final Rect mRect = new Rect();
 
     /**
      * Borrowed from android.support.design.widget.AppBarLayout
      */
     public static int getMinimumHeightForVisibleOverlappingContent(ViewGroup appBarLayout) {
-        final int topInset = getTopInset(appBarLayout);
+        return getMinimumHeightForVisibleOverlappingContent(appBarLayout, getTopInset(appBarLayout));
+    }
+
+    /**
+     * Same as {@link #getMinimumHeightForVisibleOverlappingContent(ViewGroup)}, with an already
+     * resolved top inset.
+     */
+    public static int getMinimumHeightForVisibleOverlappingContent(ViewGroup appBarLayout, int topInset) {
         final int minHeight = ViewCompat.getMinimumHeight(appBarLayout);
         if (minHeight != 0) {
             // If this layout has a min height, use it (doubled)
@@ -38,16 +48,31 @@ public class CollapsingToolbarHelper {
     /**
      * Hack since we don't have access to the private
      * android.support.design.widget.AppBarLayout.getTopInset() method
+     *
+     * Prefer {@link TopInsetResolver} on hot paths, this looks up the resource table every call.
      */
     public static int getTopInset(ViewGroup appBarLayout) {
-        int inset = 0;
+        return ViewCompat.getFitsSystemWindows(appBarLayout) ? getStatusBarHeight(appBarLayout) : 0;
+    }
 
-        int resourceId = appBarLayout.getResources().getIdentifier("status_bar_height", "dimen", "android");
-        if (ViewCompat.getFitsSystemWindows(appBarLayout) && resourceId > 0) {
-            inset = appBarLayout.getResources().getDimensionPixelSize(resourceId);
+    static int getStatusBarHeight(View view) {
+        int resourceId = view.getResources().getIdentifier("status_bar_height", "dimen", "android");
+        return resourceId > 0 ? view.getResources().getDimensionPixelSize(resourceId) : 0;
+    }
+
+    /**
+     * Returns the bottom of a descendant in the coordinates of the given parent.
+     *
+     * A direct child without a transform is resolved from its layout position with integer math,
+     * the matrix walk is only used when the view is nested or transformed.
+     */
+    public int getDescendantBottom(ViewGroup parent, View descendant) {
+        if (descendant.getParent() == parent && descendant.getMatrix().isIdentity()) {
+            return descendant.getBottom();
         }
 
-        return inset;
+        getDescendantRect(parent, descendant, mRect);
+        return mRect.bottom;
     }
 
     /**
@@ -55,26 +80,20 @@ public class CollapsingToolbarHelper {
      * android.support.design.widget.ViewGroupUtilsHoneycomb
      */
 
-    public static void getDescendantRect(ViewGroup parent, View descendant, Rect out) {
+    public void getDescendantRect(ViewGroup parent, View descendant, Rect out) {
+        TraceHelper.beginSection("ToolbarButton.getDescendantRect");
         out.set(0, 0, descendant.getWidth(), descendant.getHeight());
         offsetDescendantRect(parent, descendant, out);
+        TraceHelper.endSection();
     }
 
-    static void offsetDescendantRect(ViewGroup group, View child, Rect rect) {
-        Matrix m = sMatrix.get();
-        if (m == null) {
-            m = new Matrix();
-            sMatrix.set(m);
-        } else {
-            m.set(IDENTITY);
-        }
+    void offsetDescendantRect(ViewGroup group, View child, Rect rect) {
+        final Matrix m = mMatrix;
+        m.reset();
 
         offsetDescendantMatrix(group, child, m);
 
-        RectF rectF = sRectF.get();
-        if (rectF == null) {
-            rectF = new RectF();
-        }
+        final RectF rectF = mRectF;
         rectF.set(rect);
         m.mapRect(rectF);
         rect.set((int) (rectF.left + 0.5f), (int) (rectF.top + 0.5f),
@@ -91,8 +110,9 @@ public class CollapsingToolbarHelper {
 
         m.preTranslate(view.getLeft(), view.getTop());
 
-        if (!view.getMatrix().isIdentity()) {
-            m.preConcat(view.getMatrix());
+        final Matrix viewMatrix = view.getMatrix();
+        if (!viewMatrix.isIdentity()) {
+            m.preConcat(viewMatrix);
         }
     }
 }
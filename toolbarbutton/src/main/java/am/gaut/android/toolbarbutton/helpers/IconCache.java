@@ -0,0 +1,264 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.graphics.drawable.VectorDrawableCompat;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
+import android.util.SparseArray;
+import android.util.TypedValue;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Icons rasterized once per resource, theme and pixel size, shared by all the buttons, so drawing
+ * them is a bitmap blit rather than rendering vector paths again.
+ *
+ * Icons can be tinted with theme attributes, but themes can't be compared by the styles they
+ * apply, and holding on to them would keep their Activity alive. Instead, the attributes an icon
+ * references, directly or through the colors and drawables it references, are found once by
+ * reading its XML, and their values in the theme are part of the key. Icons referencing none are
+ * shared by all themes. A color state list reached through a theme attribute is only told apart
+ * by its resource id.
+ *
+ * The cache is bounded, and emptied when the app is asked to trim its memory or its configuration
+ * changes. Only used from the main thread.
+ */
+public class IconCache {
+    // Plenty for a few toolbar icons at a few sizes
+    private static final int MAX_SIZE_BYTES = 512 * 1024;
+
+    private static final LruCache<Key, Bitmap> sIcons = new LruCache<Key, Bitmap>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Key key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+
+    // How deep references to colors and drawables are followed from the icon
+    private static final int MAX_REFERENCE_DEPTH = 4;
+
+    // Theme attributes referenced by every icon looked up, UNKNOWN_THEME_ATTRIBUTES when they
+    // can't be found
+    private static final SparseArray<int[]> sThemeAttributes = new SparseArray<>();
+    private static final int[] NO_THEME_ATTRIBUTES = new int[0];
+    private static final int[] UNKNOWN_THEME_ATTRIBUTES = new int[0];
+
+    private static final TypedValue sTypedValue = new TypedValue();
+    private static boolean sRegistered;
+
+    private static final ComponentCallbacks2 sTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_BACKGROUND) {
+                sIcons.evictAll();
+            } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                sIcons.trimToSize(MAX_SIZE_BYTES / 2);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            // Resources may resolve to other drawables now
+            sIcons.evictAll();
+            sThemeAttributes.clear();
+        }
+
+        @Override
+        public void onLowMemory() {
+            sIcons.evictAll();
+        }
+    };
+
+    /**
+     * Returns the given drawable resource rasterized at the given size, in pixels.
+     */
+    public static Bitmap getIcon(Context context, int resId, int size) {
+        if (!sRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(sTrimCallbacks);
+            sRegistered = true;
+        }
+
+        final int[] themeValues = resolveThemeValues(context, resId);
+        if (themeValues == null) {
+            // Can't tell which themes the icon looks the same in
+            return rasterize(context, resId, size);
+        }
+
+        final Key key = new Key(themeValues, resId, size);
+        Bitmap icon = sIcons.get(key);
+        if (icon == null) {
+            icon = rasterize(context, resId, size);
+            sIcons.put(key, icon);
+        }
+        return icon;
+    }
+
+    private static Bitmap rasterize(Context context, int resId, int size) {
+        TraceHelper.beginSection("ToolbarButton.rasterizeIcon");
+        final Drawable drawable = loadDrawable(context, resId);
+        final Bitmap icon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, size, size);
+        drawable.draw(new Canvas(icon));
+        TraceHelper.endSection();
+        return icon;
+    }
+
+    /**
+     * Returns the values, in the theme of the context, of the theme attributes the icon
+     * references, or null if they can't be found.
+     */
+    private static int[] resolveThemeValues(Context context, int resId) {
+        int[] attrs = sThemeAttributes.get(resId);
+        if (attrs == null) {
+            final ArrayList<Integer> found = new ArrayList<>();
+            attrs = collectThemeAttributes(context.getResources(), resId, found, 0)
+                    ? toArray(found) : UNKNOWN_THEME_ATTRIBUTES;
+            sThemeAttributes.put(resId, attrs);
+        }
+        if (attrs == UNKNOWN_THEME_ATTRIBUTES) {
+            return null;
+        }
+
+        final Resources.Theme theme = context.getTheme();
+        final int[] values = new int[attrs.length * 3];
+        for (int i = 0; i < attrs.length; i++) {
+            if (theme.resolveAttribute(attrs[i], sTypedValue, true)) {
+                values[i * 3] = sTypedValue.type;
+                values[i * 3 + 1] = sTypedValue.data;
+                values[i * 3 + 2] = sTypedValue.resourceId;
+            } else {
+                values[i * 3] = TypedValue.TYPE_NULL;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Adds the theme attributes referenced by the given XML resource, and by the XML resources it
+     * references, to the list. Returns false if the resource couldn't be read.
+     */
+    private static boolean collectThemeAttributes(Resources res, int resId, ArrayList<Integer> attrs, int depth) {
+        try {
+            res.getValue(resId, sTypedValue, true);
+        } catch (Resources.NotFoundException e) {
+            return false;
+        }
+        if (sTypedValue.string == null || !sTypedValue.string.toString().endsWith(".xml")) {
+            // Bitmaps and plain values don't reference anything
+            return true;
+        }
+
+        final XmlResourceParser parser = res.getXml(resId);
+        try {
+            for (int type = parser.getEventType(); type != XmlPullParser.END_DOCUMENT; type = parser.next()) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                for (int i = 0, count = parser.getAttributeCount(); i < count; i++) {
+                    // Compiled references read as "?" or "@" followed by the id
+                    final String value = parser.getAttributeValue(i);
+                    if (value == null || value.length() < 2
+                            || (value.charAt(0) != '?' && value.charAt(0) != '@')) {
+                        continue;
+                    }
+                    final int id;
+                    try {
+                        id = Integer.parseInt(value.substring(1));
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (id == 0) {
+                        continue;
+                    }
+                    if (value.charAt(0) == '?') {
+                        if (!attrs.contains(id)) {
+                            attrs.add(id);
+                        }
+                    } else if (depth >= MAX_REFERENCE_DEPTH
+                            || !collectThemeAttributes(res, id, attrs, depth + 1)) {
+                        return false;
+                    }
+                }
+            }
+        } catch (XmlPullParserException e) {
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            parser.close();
+        }
+        return true;
+    }
+
+    private static int[] toArray(ArrayList<Integer> list) {
+        if (list.isEmpty()) {
+            return NO_THEME_ATTRIBUTES;
+        }
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static Drawable loadDrawable(Context context, int resId) {
+        if (Build.VERSION.SDK_INT < 21) {
+            // Vector drawables are only inflated by the platform from API 21
+            final Resources res = context.getResources();
+            res.getValue(resId, sTypedValue, true);
+            if (sTypedValue.string != null && sTypedValue.string.toString().endsWith(".xml")) {
+                final Drawable vector = VectorDrawableCompat.create(res, resId, context.getTheme());
+                if (vector != null) {
+                    return vector;
+                }
+            }
+        }
+        return ContextCompat.getDrawable(context, resId);
+    }
+
+    private static final class Key {
+        private final int[] mThemeValues;
+        private final int mResId;
+        private final int mSize;
+
+        Key(int[] themeValues, int resId, int size) {
+            mThemeValues = themeValues;
+            mResId = resId;
+            mSize = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mResId == other.mResId && mSize == other.mSize
+                    && Arrays.equals(mThemeValues, other.mThemeValues);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(mThemeValues);
+            result = 31 * result + mResId;
+            result = 31 * result + mSize;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+/**
+ * Draws a drop shadow under another drawable, for platforms without elevation (pre API 21).
+ *
+ * The shadow takes the bottom of the bounds and the wrapped drawable the rest. It's drawn from a
+ * single column gradient bitmap stretched to the width, built once per shadow size and shared by
+ * every instance, so nothing is rebuilt while the bounds change on every frame of a collapse.
+ */
+public class ShadowDrawable extends Drawable implements Drawable.Callback {
+    // Same colors as the Floating Action Button's pre-Lollipop shadow
+    private static final int SHADOW_START_ALPHA = 0x44;
+
+    // Only touched from the main thread
+    private static final SparseArray<Bitmap> sShadows = new SparseArray<>();
+
+    private final Drawable mContent;
+    private final int mShadowSize;
+    private final Bitmap mShadow;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mShadowRect = new Rect();
+
+    public ShadowDrawable(Drawable content, int shadowSize) {
+        mContent = content;
+        mShadowSize = shadowSize;
+        mShadow = getShadow(shadowSize);
+        content.setCallback(this);
+    }
+
+    private static Bitmap getShadow(int shadowSize) {
+        Bitmap shadow = sShadows.get(shadowSize);
+        if (shadow == null) {
+            shadow = Bitmap.createBitmap(1, Math.max(1, shadowSize), Bitmap.Config.ARGB_8888);
+            for (int y = 0; y < shadowSize; y++) {
+                // Fades out quadratically away from the edge
+                final float fraction = 1f - (y + 0.5f) / shadowSize;
+                shadow.setPixel(0, y, Math.round(SHADOW_START_ALPHA * fraction * fraction) << 24);
+            }
+            sShadows.put(shadowSize, shadow);
+        }
+        return shadow;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (!mShadowRect.isEmpty()) {
+            canvas.drawBitmap(mShadow, null, mShadowRect, mPaint);
+        }
+        mContent.draw(canvas);
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        final int shadowTop = Math.max(bounds.top, bounds.bottom - mShadowSize);
+        mContent.setBounds(bounds.left, bounds.top, bounds.right, shadowTop);
+        mShadowRect.set(bounds.left, shadowTop, bounds.right, bounds.bottom);
+    }
+
+    @Override
+    public boolean getPadding(Rect padding) {
+        // Keep the content centered above the shadow
+        mContent.getPadding(padding);
+        padding.bottom += mShadowSize;
+        return true;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return mContent.isStateful();
+    }
+
+    @Override
+    protected boolean onStateChange(int[] state) {
+        return mContent.setState(state);
+    }
+
+    @Override
+    public void jumpToCurrentState() {
+        mContent.jumpToCurrentState();
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        mContent.setVisible(visible, restart);
+        return super.setVisible(visible, restart);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mContent.getIntrinsicWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        final int height = mContent.getIntrinsicHeight();
+        return height < 0 ? height : height + mShadowSize;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        mContent.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mContent.setColorFilter(colorFilter);
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public Drawable mutate() {
+        mContent.mutate();
+        return this;
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+}
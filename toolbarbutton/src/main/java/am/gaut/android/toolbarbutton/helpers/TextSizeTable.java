@@ -0,0 +1,89 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.graphics.Paint;
+import android.text.TextPaint;
+
+import java.util.Arrays;
+
+/**
+ * Largest text size a single line label can take for every available height, so following the
+ * toolbar height only costs an array lookup instead of measuring the text.
+ *
+ * The table has to be rebuilt whenever the label, its typeface or its available width changes.
+ */
+public class TextSizeTable {
+    private final TextPaint mPaint = new TextPaint();
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+
+    private float[] mTextSizes;
+    private float mMinTextSize;
+
+    /**
+     * Returns whether the table was built since it was last invalidated.
+     */
+    public boolean isValid() {
+        return mTextSizes != null;
+    }
+
+    public void invalidate() {
+        mTextSizes = null;
+    }
+
+    /**
+     * Builds the table for the given label.
+     *
+     * @param text the label, as displayed
+     * @param paint paint the label is drawn with, only read
+     * @param availableWidth width the label has to fit in
+     * @param minTextSize smallest text size, used when nothing fits, in pixels. Clamped to the
+     *                    largest size
+     * @param maxTextSize largest text size, in pixels
+     */
+    public void build(CharSequence text, TextPaint paint, int availableWidth, float minTextSize, float maxTextSize) {
+        minTextSize = Math.min(minTextSize, maxTextSize);
+        mPaint.set(paint);
+        mMinTextSize = minTextSize;
+
+        // Heights past the one of the largest size all get the largest size
+        mTextSizes = new float[getTextHeight(maxTextSize) + 1];
+        Arrays.fill(mTextSizes, minTextSize);
+
+        // Every size fitting the width takes the heights it fits in that no larger size took, from
+        // the largest size down to the smallest in 1px steps, so both ends are always included
+        int end = mTextSizes.length;
+        float size = maxTextSize;
+        while (true) {
+            mPaint.setTextSize(size);
+            if (mPaint.measureText(text, 0, text.length()) <= availableWidth) {
+                final int height = getTextHeight(size);
+                if (height < end) {
+                    Arrays.fill(mTextSizes, height, end, size);
+                    end = height;
+                }
+            }
+            if (size <= minTextSize) {
+                break;
+            }
+            size = Math.max(size - 1f, minTextSize);
+        }
+    }
+
+    /**
+     * Returns the largest text size fitting in the given height, in pixels.
+     */
+    public float getTextSize(int availableHeight) {
+        if (availableHeight < 0) {
+            return mMinTextSize;
+        }
+        if (availableHeight >= mTextSizes.length) {
+            return mTextSizes[mTextSizes.length - 1];
+        }
+        return mTextSizes[availableHeight];
+    }
+
+    private int getTextHeight(float textSize) {
+        mPaint.setTextSize(textSize);
+        mPaint.getFontMetrics(mFontMetrics);
+        return (int) Math.ceil(mFontMetrics.descent - mFontMetrics.ascent);
+    }
+}
@@ -0,0 +1,58 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.os.Build;
+import android.support.v4.view.ViewCompat;
+import android.view.ViewGroup;
+import android.view.WindowInsets;
+
+/**
+ * Resolves the top inset of an AppBarLayout without going through the resource table on every
+ * frame. Callers are expected to only ask again once the AppBarLayout was laid out again.
+ *
+ * On API 23+ the inset is read from the insets dispatched to the root of the window. Below that,
+ * or until the view is attached, this is a one-time cache: the status bar height (or a seeded
+ * inset) is looked up once and reused, and later inset changes aren't seen.
+ *
+ * No {@link android.support.v4.view.OnApplyWindowInsetsListener} is used. The AppBarLayout
+ * installs its own, and the views following it are usually not fitting system windows, so the
+ * CoordinatorLayout never dispatches insets to them.
+ */
+public class TopInsetResolver {
+    private static final int UNRESOLVED = -1;
+
+    private int mSeededInset = UNRESOLVED;
+    private int mStatusBarHeight = UNRESOLVED;
+
+    /**
+     * Uses the given inset, saved from a previous instance, instead of the status bar height
+     * whenever the window insets can't be read.
+     */
+    public void seed(int systemWindowInsetTop) {
+        mSeededInset = systemWindowInsetTop;
+    }
+
+    /**
+     * Equivalent of the private android.support.design.widget.AppBarLayout.getTopInset() method
+     */
+    public int getTopInset(ViewGroup appBarLayout) {
+        if (!ViewCompat.getFitsSystemWindows(appBarLayout)) {
+            return 0;
+        }
+
+        if (Build.VERSION.SDK_INT >= 23) {
+            final WindowInsets insets = appBarLayout.getRootWindowInsets();
+            if (insets != null) {
+                return insets.getSystemWindowInsetTop();
+            }
+        }
+
+        if (mSeededInset != UNRESOLVED) {
+            return mSeededInset;
+        }
+
+        if (mStatusBarHeight == UNRESOLVED) {
+            mStatusBarHeight = CollapsingToolbarHelper.getStatusBarHeight(appBarLayout);
+        }
+        return mStatusBarHeight;
+    }
+}
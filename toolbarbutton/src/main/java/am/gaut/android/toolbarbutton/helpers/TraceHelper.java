@@ -0,0 +1,99 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * Named systrace/Perfetto sections around the ToolbarButton hot paths.
+ *
+ * Off by default. While off, every call only reads a static flag.
+ */
+public class TraceHelper {
+    // android.os.Trace.TRACE_TAG_APP, which is hidden
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private static boolean sEnabled;
+
+    // Async slices are only public from API 29, resolved once when tracing gets enabled
+    private static Method sBeginAsyncSection;
+    private static Method sEndAsyncSection;
+    private static boolean sAsyncSectionTakesTag;
+
+    /**
+     * Enables or disables the trace sections. Requires API 18+, ignored on older versions.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled && Build.VERSION.SDK_INT >= 18;
+        if (sEnabled && sBeginAsyncSection == null) {
+            resolveAsyncSectionMethods();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    @TargetApi(18)
+    public static void beginSection(String sectionName) {
+        if (sEnabled) {
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    @TargetApi(18)
+    public static void endSection() {
+        if (sEnabled) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Begins a slice that can end on a later frame. Sections with the same name must use a
+     * different cookie to overlap.
+     */
+    public static void beginAsyncSection(String sectionName, int cookie) {
+        if (sEnabled && sBeginAsyncSection != null) {
+            invokeAsyncSection(sBeginAsyncSection, sectionName, cookie);
+        }
+    }
+
+    public static void endAsyncSection(String sectionName, int cookie) {
+        if (sEnabled && sEndAsyncSection != null) {
+            invokeAsyncSection(sEndAsyncSection, sectionName, cookie);
+        }
+    }
+
+    private static void invokeAsyncSection(Method method, String sectionName, int cookie) {
+        try {
+            if (sAsyncSectionTakesTag) {
+                method.invoke(null, TRACE_TAG_APP, sectionName, cookie);
+            } else {
+                method.invoke(null, sectionName, cookie);
+            }
+        } catch (Exception e) {
+            // Not available on this device, only synchronous sections will show up
+            sBeginAsyncSection = null;
+            sEndAsyncSection = null;
+        }
+    }
+
+    private static void resolveAsyncSectionMethods() {
+        try {
+            if (Build.VERSION.SDK_INT >= 29) {
+                sBeginAsyncSection = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+                sEndAsyncSection = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+                sAsyncSectionTakesTag = false;
+            } else {
+                sBeginAsyncSection = Trace.class.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+                sEndAsyncSection = Trace.class.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+                sAsyncSectionTakesTag = true;
+            }
+        } catch (Exception e) {
+            sBeginAsyncSection = null;
+            sEndAsyncSection = null;
+        }
+    }
+}
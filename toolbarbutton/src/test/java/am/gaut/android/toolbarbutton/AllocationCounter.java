@@ -0,0 +1,30 @@
+package am.gaut.android.toolbarbutton;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Reads how many bytes the current thread allocated, on JVMs exposing it.
+ */
+public final class AllocationCounter {
+
+    private AllocationCounter() {
+    }
+
+    public static boolean isSupported() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or 0 if not supported.
+     */
+    public static long getAllocatedBytes() {
+        if (!isSupported()) {
+            return 0;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
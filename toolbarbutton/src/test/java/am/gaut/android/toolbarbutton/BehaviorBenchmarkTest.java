@@ -0,0 +1,237 @@
+package am.gaut.android.toolbarbutton;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Rect;
+import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.CoordinatorLayout;
+import android.view.ContextThemeWrapper;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import am.gaut.android.toolbarbutton.helpers.CollapsingToolbarHelper;
+import am.gaut.android.toolbarbutton.helpers.TopInsetResolver;
+
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.APP_BAR_HEIGHT;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.COLLAPSED_OFFSET;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.HEIGHT;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.THRESHOLD_OFFSET;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.TOOLBAR_HEIGHT;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.WIDTH;
+
+/**
+ * Microbenchmarks of the per-frame paths of the Behavior and its helpers, printing ns/op and
+ * bytes/op across view tree depths and button counts.
+ *
+ * Numbers come from Robolectric on the JVM, so they're only meaningful relative to each other,
+ * to compare a change against its parent commit. Bytes are only reported on JVMs exposing thread
+ * allocations, and include what Robolectric's shadows allocate.
+ */
+// API 18 computes view matrices in Java, later levels go through Robolectric's RenderNode shadow
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class BehaviorBenchmarkTest {
+    private static final int[] DEPTHS = {1, 4, 16};
+    private static final int[] BUTTON_COUNTS = {1, 4, 16};
+
+    private static final int WARMUP_OPS = 2000;
+    private static final int OPS = 20000;
+
+    /**
+     * Operation measured, given its iteration.
+     */
+    private interface Op {
+        void run(int i);
+    }
+
+    @Test
+    public void onDependentViewChanged() {
+        for (final int buttons : BUTTON_COUNTS) {
+            final Tree tree = new Tree(buttons);
+            tree.settleAt(THRESHOLD_OFFSET - 1);
+
+            // A frame of the AppBarLayout moving through the collapsed band, from the offset to
+            // the dependent view callbacks and the pre-draw where the buttons apply it
+            final int band = THRESHOLD_OFFSET - 1 - COLLAPSED_OFFSET;
+            run("onDependentViewChanged buttons=" + buttons, OPS, new Op() {
+                @Override
+                public void run(int i) {
+                    tree.setOffset(THRESHOLD_OFFSET - 1 - i % band);
+                    tree.preDraw();
+                }
+            });
+        }
+    }
+
+    @Test
+    public void getDescendantRect() {
+        final CollapsingToolbarHelper helper = new CollapsingToolbarHelper();
+        final Rect rect = new Rect();
+        for (final int depth : DEPTHS) {
+            final Activity activity = Robolectric.setupActivity(Activity.class);
+            final FrameLayout root = new FrameLayout(activity);
+            ViewGroup parent = root;
+            for (int i = 1; i < depth; i++) {
+                final FrameLayout child = new FrameLayout(activity);
+                parent.addView(child);
+                parent = child;
+            }
+            final View descendant = new View(activity);
+            parent.addView(descendant, new FrameLayout.LayoutParams(WIDTH, TOOLBAR_HEIGHT));
+            layout(root);
+
+            final View top = root.getChildAt(0);
+            run("getDescendantRect depth=" + depth, OPS, new Op() {
+                @Override
+                public void run(int i) {
+                    // Moved like a scrolling AppBarLayout, keeping the walk from being cached
+                    top.setTranslationY(-(i % APP_BAR_HEIGHT));
+                    helper.getDescendantRect(root, descendant, rect);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void getTopInset() {
+        final Tree tree = new Tree(1);
+        final AppBarLayout appBarLayout = tree.mAppBarLayout;
+        appBarLayout.setFitsSystemWindows(true);
+        final TopInsetResolver resolver = new TopInsetResolver();
+        run("getTopInset", OPS, new Op() {
+            @Override
+            public void run(int i) {
+                resolver.getTopInset(appBarLayout);
+            }
+        });
+    }
+
+    @Test
+    public void showHide() {
+        for (final int buttons : BUTTON_COUNTS) {
+            final Tree tree = new Tree(buttons);
+            tree.settleAt(THRESHOLD_OFFSET - 1);
+
+            // Shown and hidden again before the animations run, like a scroll reversing at the
+            // threshold, then the posted animation starts are run
+            run("show()/hide() buttons=" + buttons, OPS / buttons, new Op() {
+                @Override
+                public void run(int i) {
+                    for (ToolbarButton button : tree.mButtons) {
+                        button.show();
+                    }
+                    for (ToolbarButton button : tree.mButtons) {
+                        button.hide();
+                    }
+                    ShadowLooper.runUiThreadTasks();
+                }
+            });
+        }
+    }
+
+    private static void run(String name, int ops, Op op) {
+        for (int i = 0; i < WARMUP_OPS; i++) {
+            op.run(i);
+        }
+
+        final long bytesBefore = AllocationCounter.getAllocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            op.run(i);
+        }
+        final long nanos = System.nanoTime() - start;
+        final long bytes = AllocationCounter.getAllocatedBytes() - bytesBefore;
+
+        System.out.println(String.format(Locale.US, "%-36s %10d ns/op %10s bytes/op", name, nanos / ops,
+                AllocationCounter.isSupported() ? String.valueOf(bytes / ops) : "n/a"));
+    }
+
+    private static void layout(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * A CoordinatorLayout holding an AppBarLayout and buttons anchored to it, clipped rather than
+     * laid out while the toolbar collapses so frames don't need a layout pass.
+     */
+    private static final class Tree {
+        final CoordinatorLayout mCoordinatorLayout;
+        final AppBarLayout mAppBarLayout;
+        final ToolbarButton[] mButtons;
+
+        Tree(int buttons) {
+            final Activity activity = Robolectric.setupActivity(Activity.class);
+            final Context context = new ContextThemeWrapper(activity,
+                    android.support.v7.appcompat.R.style.Theme_AppCompat_Light_NoActionBar);
+
+            mCoordinatorLayout = new CoordinatorLayout(context);
+            mAppBarLayout = new AppBarLayout(context);
+            mAppBarLayout.setId(View.generateViewId());
+            final View toolbar = new View(context);
+            toolbar.setMinimumHeight(TOOLBAR_HEIGHT);
+            final AppBarLayout.LayoutParams toolbarParams = new AppBarLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, APP_BAR_HEIGHT);
+            toolbarParams.setScrollFlags(AppBarLayout.LayoutParams.SCROLL_FLAG_SCROLL
+                    | AppBarLayout.LayoutParams.SCROLL_FLAG_EXIT_UNTIL_COLLAPSED);
+            mAppBarLayout.addView(toolbar, toolbarParams);
+            mCoordinatorLayout.addView(mAppBarLayout, new CoordinatorLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+            mButtons = new ToolbarButton[buttons];
+            for (int i = 0; i < buttons; i++) {
+                final ToolbarButton button = new ToolbarButton(context);
+                button.setText("Action");
+                button.setCollapseMode(ToolbarButton.COLLAPSE_MODE_CLIP);
+                final CoordinatorLayout.LayoutParams buttonParams = new CoordinatorLayout.LayoutParams(
+                        ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+                buttonParams.setBehavior(new ToolbarButton.Behavior());
+                buttonParams.setAnchorId(mAppBarLayout.getId());
+                buttonParams.anchorGravity = Gravity.BOTTOM | Gravity.END;
+                mCoordinatorLayout.addView(button, buttonParams);
+                mButtons[i] = button;
+            }
+
+            activity.setContentView(mCoordinatorLayout);
+            layout(mCoordinatorLayout);
+        }
+
+        void setOffset(int offset) {
+            final AppBarLayout.Behavior behavior = (AppBarLayout.Behavior)
+                    ((CoordinatorLayout.LayoutParams) mAppBarLayout.getLayoutParams()).getBehavior();
+            behavior.setTopAndBottomOffset(offset);
+        }
+
+        void preDraw() {
+            mCoordinatorLayout.getViewTreeObserver().dispatchOnPreDraw();
+        }
+
+        /**
+         * Moves the AppBarLayout to the offset and runs frames until the buttons are laid out
+         * and their animations ended.
+         */
+        void settleAt(int offset) {
+            setOffset(offset);
+            for (int i = 0; i < 60; i++) {
+                if (mCoordinatorLayout.isLayoutRequested()) {
+                    layout(mCoordinatorLayout);
+                }
+                preDraw();
+                ShadowLooper.idleMainLooper(16, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package am.gaut.android.toolbarbutton;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.COLLAPSED_OFFSET;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.THRESHOLD_OFFSET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CollapseModeClipTest {
+
+    @Test
+    public void clipModeScrollsThroughCollapsedBandWithoutLayout() {
+        final ScrollTraceHarness harness = new ScrollTraceHarness();
+        harness.getButton().setCollapseMode(ToolbarButton.COLLAPSE_MODE_CLIP);
+        enterCollapsedBand(harness);
+
+        final ScrollTraceHarness.Result result = harness.replay(scrollThroughCollapsedBand());
+        assertTrue(result.toString(), result.behaviorUpdates > 0);
+        assertEquals(result.toString(), 0, result.layoutRequests);
+        assertEquals(result.toString(), 0, result.layoutPasses);
+    }
+
+    @Test
+    public void layoutModeRequestsLayoutWhileScrollingThroughCollapsedBand() {
+        final ScrollTraceHarness harness = new ScrollTraceHarness();
+        enterCollapsedBand(harness);
+
+        final ScrollTraceHarness.Result result = harness.replay(scrollThroughCollapsedBand());
+        assertTrue(result.toString(), result.layoutRequests > 0);
+    }
+
+    @Test
+    public void clippedAwayPartDoesNotTakeTaps() {
+        final ScrollTraceHarness harness = new ScrollTraceHarness();
+        final ToolbarButton button = harness.getButton();
+        button.setCollapseMode(ToolbarButton.COLLAPSE_MODE_CLIP);
+        enterCollapsedBand(harness);
+        harness.replay(new ScrollTrace().scrollTo(THRESHOLD_OFFSET - 1, COLLAPSED_OFFSET, 4));
+
+        final int[] clicks = new int[1];
+        button.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                clicks[0]++;
+            }
+        });
+
+        // Visible bottom edge of the button, in the CoordinatorLayout
+        final Rect clipBounds = button.getClipBounds();
+        assertTrue(clipBounds.height() < button.getHeight());
+        final float x = button.getLeft() + button.getWidth() / 2f;
+        final float visibleBottom = button.getTop() + button.getTranslationY() + clipBounds.bottom;
+
+        harness.tap(x, visibleBottom + 1);
+        assertEquals(0, clicks[0]);
+
+        harness.tap(x, visibleBottom - 1);
+        assertEquals(1, clicks[0]);
+    }
+
+    /**
+     * Shows the button and lays it out once, at the top of the collapsed band.
+     */
+    private static void enterCollapsedBand(ScrollTraceHarness harness) {
+        harness.replay(new ScrollTrace().scrollTo(0, THRESHOLD_OFFSET - 1, 8));
+    }
+
+    private static ScrollTrace scrollThroughCollapsedBand() {
+        return new ScrollTrace()
+                .scrollTo(THRESHOLD_OFFSET - 1, COLLAPSED_OFFSET, 1)
+                .scrollTo(COLLAPSED_OFFSET, THRESHOLD_OFFSET - 1, 1);
+    }
+}
@@ -0,0 +1,47 @@
+package am.gaut.android.toolbarbutton;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.COLLAPSED_OFFSET;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.THRESHOLD_OFFSET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the text measures made while the toolbar collapses in layout mode, with the measured
+ * width reused while only the height changes and without.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MeasureCacheTest {
+
+    @Test
+    public void collapsingInLayoutModeOnlyMeasuresWithoutCache() {
+        final ScrollTrace trace = new ScrollTrace()
+                .scrollTo(THRESHOLD_OFFSET - 1, COLLAPSED_OFFSET, 1)
+                .scrollTo(COLLAPSED_OFFSET, THRESHOLD_OFFSET - 1, 1);
+
+        final ScrollTraceHarness.Result cached = replay(trace, true);
+        final ScrollTraceHarness.Result uncached = replay(trace, false);
+        System.out.println(String.format(Locale.US,
+                "Measures per collapse frame: %.2f with cache, %.2f without (%d frames)",
+                (float) cached.measures / trace.size(), (float) uncached.measures / trace.size(),
+                trace.size()));
+
+        assertEquals(cached.toString(), 0, cached.measures);
+        assertTrue(uncached.toString(), uncached.measures >= trace.size());
+    }
+
+    private static ScrollTraceHarness.Result replay(ScrollTrace trace, boolean measureCacheEnabled) {
+        final ScrollTraceHarness harness = new ScrollTraceHarness();
+        harness.getButton().setMeasureCacheEnabled(measureCacheEnabled);
+        // Shows the button and lays it out once, at the top of the collapsed band
+        harness.replay(new ScrollTrace().scrollTo(0, THRESHOLD_OFFSET - 1, 8));
+        return harness.replay(trace);
+    }
+}
@@ -0,0 +1,69 @@
+package am.gaut.android.toolbarbutton;
+
+import android.support.design.widget.AppBarLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.APP_BAR_HEIGHT;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.COLLAPSED_OFFSET;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.THRESHOLD_OFFSET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class NestedScrollTrackingTest {
+    private static final int SCROLL_STEP = 8;
+    // Bottom of the AppBarLayout below which the toolbar counts as collapsed
+    private static final int THRESHOLD = APP_BAR_HEIGHT + THRESHOLD_OFFSET;
+
+    @Test
+    public void buttonFollowsToolbarEveryFrameWhenScrolledAfterAppBar() {
+        assertButtonFollowsToolbar(new ScrollTraceHarness(false));
+    }
+
+    @Test
+    public void buttonFollowsToolbarEveryFrameWhenScrolledBeforeAppBar() {
+        assertButtonFollowsToolbar(new ScrollTraceHarness(true));
+    }
+
+    /**
+     * Scrolls the toolbar closed and open again, checking on every frame that the height the
+     * button is drawn at is the height of the toolbar drawn in the same frame.
+     */
+    private static void assertButtonFollowsToolbar(ScrollTraceHarness harness) {
+        final ToolbarButton button = harness.getButton();
+        final AppBarLayout appBarLayout = harness.getAppBarLayout();
+        button.setNestedScrollTrackingEnabled(true);
+
+        final StringBuilder mismatches = new StringBuilder();
+        final int[] checkedFrames = new int[1];
+        harness.setFrameListener(new ScrollTraceHarness.FrameListener() {
+            @Override
+            public void onFrame() {
+                if (!button.isOrWillBeShown()) {
+                    return;
+                }
+                final int expected = Math.min(appBarLayout.getBottom(), THRESHOLD);
+                if (button.getHeight() != expected) {
+                    mismatches.append(" bottom=").append(appBarLayout.getBottom())
+                            .append(" height=").append(button.getHeight());
+                }
+                checkedFrames[0]++;
+            }
+        });
+
+        final int frames = -COLLAPSED_OFFSET / SCROLL_STEP;
+        harness.replay(new ScrollTrace()
+                .startGesture()
+                .scroll(SCROLL_STEP, frames)
+                .scroll(-SCROLL_STEP, frames)
+                .stopGesture());
+
+        assertTrue(checkedFrames[0] > 0);
+        assertEquals("Frames the button didn't match the toolbar:" + mismatches, 0, mismatches.length());
+    }
+}
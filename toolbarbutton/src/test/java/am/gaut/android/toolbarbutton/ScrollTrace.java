@@ -0,0 +1,98 @@
+package am.gaut.android.toolbarbutton;
+
+import java.util.Arrays;
+
+/**
+ * A recorded or synthetic sequence of AppBarLayout offsets, nested scroll gestures and flings,
+ * replayed by {@link ScrollTraceHarness}. Every offset and scroll step is one frame.
+ */
+final class ScrollTrace {
+    static final int STEP_OFFSET = 0;
+    static final int STEP_START_GESTURE = 1;
+    static final int STEP_FLING = 2;
+    static final int STEP_STOP_GESTURE = 3;
+    static final int STEP_SCROLL = 4;
+
+    private int[] mTypes = new int[64];
+    private int[] mValues = new int[64];
+    private int mSize;
+
+    /**
+     * Moves the AppBarLayout to the given offset, 0 being fully expanded.
+     */
+    ScrollTrace offset(int offset) {
+        return add(STEP_OFFSET, offset);
+    }
+
+    /**
+     * Moves the AppBarLayout from one offset to another by the given amount per frame, ending on
+     * the target offset.
+     */
+    ScrollTrace scrollTo(int from, int to, int step) {
+        final int direction = to < from ? -1 : 1;
+        for (int offset = from + direction * step; offset * direction < to * direction; offset += direction * step) {
+            offset(offset);
+        }
+        return offset(to);
+    }
+
+    /**
+     * Moves the AppBarLayout back and forth around an offset, one side per frame.
+     */
+    ScrollTrace dither(int center, int amplitude, int frames) {
+        for (int i = 0; i < frames; i++) {
+            offset(i % 2 == 0 ? center + amplitude : center - amplitude);
+        }
+        return this;
+    }
+
+    /**
+     * Scrolls the scrolling view by the given amount per frame within a gesture, positive amounts
+     * collapsing the toolbar. The AppBarLayout takes what it can of every scroll.
+     */
+    ScrollTrace scroll(int dy, int frames) {
+        for (int i = 0; i < frames; i++) {
+            add(STEP_SCROLL, dy);
+        }
+        return this;
+    }
+
+    ScrollTrace startGesture() {
+        return add(STEP_START_GESTURE, 0);
+    }
+
+    /**
+     * Flings the scrolling view within a gesture, positive velocities collapsing the toolbar. The
+     * scrolling view can't scroll itself, so the AppBarLayout takes the fling.
+     */
+    ScrollTrace fling(int velocityY) {
+        return add(STEP_FLING, velocityY);
+    }
+
+    ScrollTrace stopGesture() {
+        return add(STEP_STOP_GESTURE, 0);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getType(int index) {
+        return mTypes[index];
+    }
+
+    int getValue(int index) {
+        return mValues[index];
+    }
+
+    private ScrollTrace add(int type, int value) {
+        if (mSize == mTypes.length) {
+            mTypes = Arrays.copyOf(mTypes, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        mTypes[mSize] = type;
+        mValues[mSize] = value;
+        mSize++;
+        return this;
+    }
+}
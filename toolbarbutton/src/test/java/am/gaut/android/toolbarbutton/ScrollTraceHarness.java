@@ -0,0 +1,317 @@
+package am.gaut.android.toolbarbutton;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.CoordinatorLayout;
+import android.support.v4.view.ViewCompat;
+import android.view.ContextThemeWrapper;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays {@link ScrollTrace ScrollTraces} through a real CoordinatorLayout, AppBarLayout and
+ * {@link ToolbarButton} hierarchy, modelled after the detail screen of the sample app, and counts
+ * what the button and its Behavior did along the way.
+ *
+ * Frames are run by hand: a layout pass if one was requested, the pre-draw dispatch where the
+ * CoordinatorLayout and the Behavior pick up the AppBarLayout's position, then a frame's worth of
+ * the main looper for animations and flings.
+ *
+ * Offset steps move the AppBarLayout directly through its Behavior's offset, so its offset
+ * listeners aren't called. Gestures, scrolls and flings go through the nested scrolling methods of
+ * the CoordinatorLayout, the way a scrolling view calls them, so the AppBarLayout's own nested
+ * scroll and fling handling moves it.
+ */
+final class ScrollTraceHarness {
+    static final int WIDTH = 360;
+    static final int HEIGHT = 640;
+    static final int APP_BAR_HEIGHT = 256;
+    static final int TOOLBAR_HEIGHT = 56;
+
+    /** Offset at which the toolbar counts as collapsed, no insets being applied. */
+    static final int THRESHOLD_OFFSET = 2 * TOOLBAR_HEIGHT - APP_BAR_HEIGHT;
+    /** Offset at which only the toolbar's min height is left. */
+    static final int COLLAPSED_OFFSET = TOOLBAR_HEIGHT - APP_BAR_HEIGHT;
+
+    private static final long FRAME_MILLIS = 16;
+    // Frames run after a trace, for flings and animations to end
+    private static final int IDLE_FRAMES = 60;
+
+    /**
+     * Totals for a replayed trace.
+     */
+    static final class Result {
+        long frames;
+        long layoutRequests;
+        long layoutPasses;
+        long measures;
+        long animationStarts;
+        long animationCancels;
+        long behaviorUpdates;
+        long skippedBehaviorUpdates;
+        long setLayoutParamsCalls;
+        long offsetChangedCallbacks;
+        long deadlineMissedCallbacks;
+        long allocatedBytes;
+
+        @Override
+        public String toString() {
+            return "frames=" + frames + " layoutRequests=" + layoutRequests + " layoutPasses=" + layoutPasses
+                    + " measures=" + measures
+                    + " animationStarts=" + animationStarts + " animationCancels=" + animationCancels
+                    + " behaviorUpdates=" + behaviorUpdates + " skippedBehaviorUpdates=" + skippedBehaviorUpdates
+                    + " setLayoutParamsCalls=" + setLayoutParamsCalls
+                    + " offsetChangedCallbacks=" + offsetChangedCallbacks
+                    + " deadlineMissedCallbacks=" + deadlineMissedCallbacks
+                    + " allocatedBytes=" + allocatedBytes;
+        }
+    }
+
+    /**
+     * Called at the end of every frame, once it would be drawn.
+     */
+    interface FrameListener {
+        void onFrame();
+    }
+
+    /**
+     * Counts the layout params set on the button, by the Behavior in layout mode.
+     */
+    private static final class CountingToolbarButton extends ToolbarButton {
+        long setLayoutParamsCalls;
+
+        CountingToolbarButton(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void setLayoutParams(ViewGroup.LayoutParams params) {
+            setLayoutParamsCalls++;
+            super.setLayoutParams(params);
+        }
+    }
+
+    private final CoordinatorLayout mCoordinatorLayout;
+    private final AppBarLayout mAppBarLayout;
+    private final View mScrollingView;
+    private final CountingToolbarButton mButton;
+    private final int[] mConsumed = new int[2];
+
+    private long mFrames;
+    private long mLayoutPasses;
+    private long mOffsetChangedCallbacks;
+    private long mDeadlineMissedCallbacks;
+    private boolean mNestedScrollAccepted;
+    private FrameListener mFrameListener;
+
+    ScrollTraceHarness() {
+        this(false);
+    }
+
+    /**
+     * @param buttonBeforeAppBar whether the button is added to the CoordinatorLayout before the
+     *                           AppBarLayout, so it gets the nested scroll callbacks first
+     */
+    ScrollTraceHarness(boolean buttonBeforeAppBar) {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final Context context = new ContextThemeWrapper(activity,
+                android.support.v7.appcompat.R.style.Theme_AppCompat_Light_NoActionBar);
+
+        mCoordinatorLayout = new CoordinatorLayout(context);
+        mCoordinatorLayout.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                    int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                mLayoutPasses++;
+            }
+        });
+
+        mAppBarLayout = new AppBarLayout(context);
+        mAppBarLayout.setId(View.generateViewId());
+        final View toolbar = new View(context);
+        toolbar.setMinimumHeight(TOOLBAR_HEIGHT);
+        final AppBarLayout.LayoutParams toolbarParams = new AppBarLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, APP_BAR_HEIGHT);
+        toolbarParams.setScrollFlags(AppBarLayout.LayoutParams.SCROLL_FLAG_SCROLL
+                | AppBarLayout.LayoutParams.SCROLL_FLAG_EXIT_UNTIL_COLLAPSED);
+        mAppBarLayout.addView(toolbar, toolbarParams);
+        mAppBarLayout.addOnOffsetChangedListener(new AppBarLayout.OnOffsetChangedListener() {
+            @Override
+            public void onOffsetChanged(AppBarLayout appBarLayout, int verticalOffset) {
+                mOffsetChangedCallbacks++;
+            }
+        });
+
+        mScrollingView = new View(context);
+        final CoordinatorLayout.LayoutParams scrollingParams = new CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        scrollingParams.setBehavior(new AppBarLayout.ScrollingViewBehavior());
+
+        mButton = new CountingToolbarButton(context);
+        mButton.setText("Action");
+        mButton.setMetricsListener(new ToolbarButton.MetricsListener() {
+            @Override
+            public void onFrameDeadlineMissed(ToolbarButton toolbarBtn, long workNanos) {
+                mDeadlineMissedCallbacks++;
+            }
+        });
+        final CoordinatorLayout.LayoutParams buttonParams = new CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        buttonParams.setBehavior(new ToolbarButton.Behavior());
+        buttonParams.setAnchorId(mAppBarLayout.getId());
+        buttonParams.anchorGravity = Gravity.BOTTOM | Gravity.END;
+
+        final CoordinatorLayout.LayoutParams appBarParams = new CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        if (buttonBeforeAppBar) {
+            mCoordinatorLayout.addView(mButton, buttonParams);
+            mCoordinatorLayout.addView(mAppBarLayout, appBarParams);
+            mCoordinatorLayout.addView(mScrollingView, scrollingParams);
+        } else {
+            mCoordinatorLayout.addView(mAppBarLayout, appBarParams);
+            mCoordinatorLayout.addView(mScrollingView, scrollingParams);
+            mCoordinatorLayout.addView(mButton, buttonParams);
+        }
+
+        activity.setContentView(mCoordinatorLayout);
+        frame();
+    }
+
+    ToolbarButton getButton() {
+        return mButton;
+    }
+
+    AppBarLayout getAppBarLayout() {
+        return mAppBarLayout;
+    }
+
+    void setFrameListener(FrameListener listener) {
+        mFrameListener = listener;
+    }
+
+    /**
+     * Replays the trace, then idles until flings and animations ended.
+     */
+    Result replay(ScrollTrace trace) {
+        final ToolbarButtonMetrics metrics = mButton.getMetrics();
+        metrics.reset();
+        final ToolbarButton.Behavior behavior = getButtonBehavior();
+        final long frames = mFrames;
+        final long layoutPasses = mLayoutPasses;
+        final long updates = behavior.getUpdateCount();
+        final long skippedUpdates = behavior.getSkippedUpdateCount();
+        final long setLayoutParamsCalls = mButton.setLayoutParamsCalls;
+        final long offsetChangedCallbacks = mOffsetChangedCallbacks;
+        final long deadlineMissedCallbacks = mDeadlineMissedCallbacks;
+        final long allocatedBytes = AllocationCounter.getAllocatedBytes();
+
+        for (int i = 0, size = trace.size(); i < size; i++) {
+            step(trace.getType(i), trace.getValue(i));
+        }
+        for (int i = 0; i < IDLE_FRAMES; i++) {
+            frame();
+        }
+
+        final Result result = new Result();
+        result.allocatedBytes = AllocationCounter.getAllocatedBytes() - allocatedBytes;
+        result.frames = mFrames - frames;
+        result.layoutRequests = metrics.getLayoutRequestCount();
+        result.layoutPasses = mLayoutPasses - layoutPasses;
+        result.measures = metrics.getMeasureCount();
+        result.animationStarts = metrics.getAnimationStartCount();
+        result.animationCancels = metrics.getAnimationCancelCount();
+        result.behaviorUpdates = behavior.getUpdateCount() - updates;
+        result.skippedBehaviorUpdates = behavior.getSkippedUpdateCount() - skippedUpdates;
+        result.setLayoutParamsCalls = mButton.setLayoutParamsCalls - setLayoutParamsCalls;
+        result.offsetChangedCallbacks = mOffsetChangedCallbacks - offsetChangedCallbacks;
+        result.deadlineMissedCallbacks = mDeadlineMissedCallbacks - deadlineMissedCallbacks;
+        return result;
+    }
+
+    private void step(int type, int value) {
+        switch (type) {
+            case ScrollTrace.STEP_OFFSET:
+                getAppBarBehavior().setTopAndBottomOffset(value);
+                frame();
+                break;
+            case ScrollTrace.STEP_START_GESTURE:
+                mNestedScrollAccepted = mCoordinatorLayout.onStartNestedScroll(mScrollingView, mScrollingView,
+                        ViewCompat.SCROLL_AXIS_VERTICAL);
+                if (mNestedScrollAccepted) {
+                    mCoordinatorLayout.onNestedScrollAccepted(mScrollingView, mScrollingView,
+                            ViewCompat.SCROLL_AXIS_VERTICAL);
+                }
+                break;
+            case ScrollTrace.STEP_SCROLL:
+                if (mNestedScrollAccepted) {
+                    // The scrolling view has no content of its own, what the AppBarLayout doesn't
+                    // take before it is left unconsumed after it
+                    mConsumed[0] = 0;
+                    mConsumed[1] = 0;
+                    mCoordinatorLayout.onNestedPreScroll(mScrollingView, 0, value, mConsumed);
+                    mCoordinatorLayout.onNestedScroll(mScrollingView, 0, 0, 0, value - mConsumed[1]);
+                }
+                frame();
+                break;
+            case ScrollTrace.STEP_FLING:
+                if (mNestedScrollAccepted && !mCoordinatorLayout.onNestedPreFling(mScrollingView, 0f, value)) {
+                    mCoordinatorLayout.onNestedFling(mScrollingView, 0f, value, false);
+                }
+                break;
+            case ScrollTrace.STEP_STOP_GESTURE:
+                if (mNestedScrollAccepted) {
+                    mCoordinatorLayout.onStopNestedScroll(mScrollingView);
+                    mNestedScrollAccepted = false;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Taps the CoordinatorLayout at the given point, in its coordinates, then runs a frame for
+     * the click to be performed.
+     */
+    void tap(float x, float y) {
+        final long downTime = SystemClock.uptimeMillis();
+        final MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0);
+        final MotionEvent up = MotionEvent.obtain(downTime, downTime + FRAME_MILLIS, MotionEvent.ACTION_UP, x, y, 0);
+        mCoordinatorLayout.dispatchTouchEvent(down);
+        mCoordinatorLayout.dispatchTouchEvent(up);
+        down.recycle();
+        up.recycle();
+        frame();
+    }
+
+    private void frame() {
+        mFrames++;
+        if (mCoordinatorLayout.isLayoutRequested()) {
+            mCoordinatorLayout.measure(
+                    View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            mCoordinatorLayout.layout(0, 0, WIDTH, HEIGHT);
+        }
+        mCoordinatorLayout.getViewTreeObserver().dispatchOnPreDraw();
+        // Layout requested from the pre-draw only shows in the next frame
+        if (mFrameListener != null) {
+            mFrameListener.onFrame();
+        }
+        ShadowLooper.idleMainLooper(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private ToolbarButton.Behavior getButtonBehavior() {
+        return (ToolbarButton.Behavior) ((CoordinatorLayout.LayoutParams) mButton.getLayoutParams()).getBehavior();
+    }
+
+    private AppBarLayout.Behavior getAppBarBehavior() {
+        return (AppBarLayout.Behavior) ((CoordinatorLayout.LayoutParams) mAppBarLayout.getLayoutParams()).getBehavior();
+    }
+}
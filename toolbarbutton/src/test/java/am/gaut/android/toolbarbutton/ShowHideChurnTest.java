@@ -0,0 +1,68 @@
+package am.gaut.android.toolbarbutton;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.COLLAPSED_OFFSET;
+import static am.gaut.android.toolbarbutton.ScrollTraceHarness.THRESHOLD_OFFSET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ShowHideChurnTest {
+    private static final int HYSTERESIS = 24;
+
+    @Test
+    public void ditheringAroundThresholdAlternatesWithoutHysteresis() {
+        final ScrollTraceHarness.Result result = replayDither(0);
+        assertTrue(result.toString(), result.animationStarts > 1);
+    }
+
+    @Test
+    public void ditheringAroundThresholdShowsOnceWithHysteresis() {
+        final ScrollTraceHarness.Result result = replayDither(HYSTERESIS);
+        assertEquals(result.toString(), 1, result.animationStarts);
+        assertEquals(result.toString(), 0, result.animationCancels);
+    }
+
+    @Test
+    public void predictedShowIsKeptUntilFlingEnds() {
+        final ScrollTraceHarness harness = createHarness(0);
+        harness.getButton().setPredictiveShowEnabled(true);
+
+        // The finger lifts 40px before the threshold, then the AppBarLayout takes the fling and
+        // collapses while the predicted show runs
+        final ScrollTraceHarness.Result result = harness.replay(new ScrollTrace()
+                .startGesture()
+                .scroll(8, -(THRESHOLD_OFFSET + 40) / 8)
+                .fling(3000)
+                .stopGesture());
+        assertEquals(result.toString(), 1, result.animationStarts);
+        assertEquals(result.toString(), 0, result.animationCancels);
+        assertTrue(result.toString(), result.offsetChangedCallbacks > 0);
+        assertTrue(harness.getButton().isOrWillBeShown());
+    }
+
+    private static ScrollTraceHarness.Result replayDither(int hysteresis) {
+        final ScrollTraceHarness harness = createHarness(hysteresis);
+        return harness.replay(new ScrollTrace()
+                .scrollTo(0, THRESHOLD_OFFSET, 8)
+                .dither(THRESHOLD_OFFSET, 4, 60));
+    }
+
+    /**
+     * Returns a harness whose button was laid out once and hidden again, so its next show is
+     * animated.
+     */
+    private static ScrollTraceHarness createHarness(int hysteresis) {
+        final ScrollTraceHarness harness = new ScrollTraceHarness();
+        harness.getButton().setHysteresis(hysteresis);
+        harness.replay(new ScrollTrace()
+                .scrollTo(0, COLLAPSED_OFFSET, 8)
+                .scrollTo(COLLAPSED_OFFSET, 0, 8));
+        return harness;
+    }
+}
@@ -0,0 +1,54 @@
+package am.gaut.android.toolbarbutton;
+
+import android.content.Context;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertNotEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ToolbarButtonGroupTest {
+
+    @Test
+    public void replacingButtonChangesConfigGeneration() {
+        final Context context = RuntimeEnvironment.application;
+        final ToolbarButtonGroup group = new ToolbarButtonGroup(context);
+        group.addView(new ToolbarButton(context));
+
+        final int generation = group.getConfigGeneration();
+        group.removeViewAt(0);
+        group.addView(new ToolbarButton(context));
+        assertNotEquals(generation, group.getConfigGeneration());
+    }
+
+    @Test
+    public void reorderingButtonsChangesConfigGeneration() {
+        final Context context = RuntimeEnvironment.application;
+        final ToolbarButtonGroup group = new ToolbarButtonGroup(context);
+        final ToolbarButton first = new ToolbarButton(context);
+        group.addView(first);
+        group.addView(new ToolbarButton(context));
+
+        final int generation = group.getConfigGeneration();
+        group.removeView(first);
+        group.addView(first);
+        assertNotEquals(generation, group.getConfigGeneration());
+    }
+
+    @Test
+    public void buttonSettingChangesConfigGeneration() {
+        final Context context = RuntimeEnvironment.application;
+        final ToolbarButtonGroup group = new ToolbarButtonGroup(context);
+        final ToolbarButton button = new ToolbarButton(context);
+        group.addView(button);
+
+        final int generation = group.getConfigGeneration();
+        button.setHysteresis(24);
+        assertNotEquals(generation, group.getConfigGeneration());
+    }
+}
@@ -0,0 +1,52 @@
+package am.gaut.android.toolbarbutton;
+
+import android.content.Context;
+import android.util.AttributeSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ToolbarButtonInflationTest {
+    private static final int BUTTONS = 1000;
+
+    @Test
+    public void inflatingButtonsSharesConfigAndInterpolators() {
+        final Context context = RuntimeEnvironment.application;
+        final AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.toolbarButtonAnimator, "timed")
+                .addAttribute(R.attr.toolbarButtonShowInterpolator, "@android:interpolator/accelerate_decelerate")
+                .addAttribute(R.attr.toolbarButtonHideInterpolator, "@android:interpolator/accelerate_decelerate")
+                .build();
+
+        // Interns the config for these attributes, if an earlier test didn't already
+        final TimedToolbarButtonAnimator first =
+                (TimedToolbarButtonAnimator) new ToolbarButton(context, attrs).getVisibilityAnimator();
+        final int internedCount = ToolbarButtonConfig.getInternedCount();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < BUTTONS; i++) {
+            final TimedToolbarButtonAnimator animator =
+                    (TimedToolbarButtonAnimator) new ToolbarButton(context, attrs).getVisibilityAnimator();
+            // Every load creates a new interpolator, so the same instance was loaded once
+            assertSame(first.getShowInterpolator(), animator.getShowInterpolator());
+            assertSame(first.getHideInterpolator(), animator.getHideInterpolator());
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.US, "Inflated %d buttons, %d ns/button",
+                BUTTONS, elapsed / BUTTONS));
+
+        // No config was interned for any of them, they all got the one of the first button
+        assertEquals(internedCount, ToolbarButtonConfig.getInternedCount());
+    }
+}
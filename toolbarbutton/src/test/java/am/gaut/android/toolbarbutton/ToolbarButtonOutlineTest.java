@@ -0,0 +1,56 @@
+package am.gaut.android.toolbarbutton;
+
+import android.content.Context;
+import android.graphics.Outline;
+import android.graphics.drawable.ColorDrawable;
+import android.view.ViewOutlineProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ToolbarButtonOutlineTest {
+
+    @Test
+    public void outlineProviderSetByAppIsKept() {
+        final ToolbarButton button = new ToolbarButton(RuntimeEnvironment.application,
+                Robolectric.buildAttributeSet()
+                        .addAttribute(android.R.attr.outlineProvider, "bounds")
+                        .build());
+        assertSame(ViewOutlineProvider.BOUNDS, button.getOutlineProvider());
+    }
+
+    @Test
+    public void outlineIsTransparentWithoutBackground() {
+        final ToolbarButton button = createButton(RuntimeEnvironment.application);
+        button.setBackground(null);
+        assertEquals(0f, getOutline(button).getAlpha(), 0f);
+    }
+
+    @Test
+    public void outlineTakesAlphaOfBackground() {
+        final ToolbarButton button = createButton(RuntimeEnvironment.application);
+        button.setBackground(new ColorDrawable(0x80ff0000));
+        assertEquals(0x80 / 255f, getOutline(button).getAlpha(), 0.001f);
+    }
+
+    private static ToolbarButton createButton(Context context) {
+        final ToolbarButton button = new ToolbarButton(context);
+        button.layout(0, 0, 120, 56);
+        return button;
+    }
+
+    private static Outline getOutline(ToolbarButton button) {
+        final Outline outline = new Outline();
+        button.getOutlineProvider().getOutline(button, outline);
+        return outline;
+    }
+}
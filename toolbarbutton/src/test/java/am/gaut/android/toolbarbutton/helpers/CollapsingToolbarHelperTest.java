@@ -0,0 +1,145 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import am.gaut.android.toolbarbutton.AllocationCounter;
+import am.gaut.android.toolbarbutton.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+// API 18 computes view matrices in Java, later levels go through Robolectric's RenderNode shadow
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class CollapsingToolbarHelperTest {
+    private static final int FRAMES = 10000;
+    private static final int SCROLL_RANGE = 200;
+
+    private final CollapsingToolbarHelper mHelper = new CollapsingToolbarHelper();
+    private FrameLayout mParent;
+    private FrameLayout mAppBarLayout;
+    private View mToolbar;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        mParent = new FrameLayout(context);
+        mAppBarLayout = new FrameLayout(context);
+        mToolbar = new View(context);
+        mAppBarLayout.addView(mToolbar, new FrameLayout.LayoutParams(360, 56));
+        mParent.addView(mAppBarLayout, new FrameLayout.LayoutParams(360, 256));
+        mParent.measure(View.MeasureSpec.makeMeasureSpec(360, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(640, View.MeasureSpec.EXACTLY));
+        mParent.layout(0, 0, 360, 640);
+    }
+
+    @Test
+    public void scrollingDoesNotAllocate() {
+        assumeTrue(AllocationCounter.isSupported());
+
+        // Warm up, so class loading and lazily created scratch objects aren't counted
+        scroll(FRAMES);
+
+        final long before = AllocationCounter.getAllocatedBytes();
+        scroll(FRAMES);
+        final long allocated = AllocationCounter.getAllocatedBytes() - before;
+
+        // A single object per frame would be at least 16 bytes
+        assertTrue("Allocated " + allocated + " bytes over " + FRAMES + " frames", allocated < FRAMES);
+    }
+
+    @Test
+    public void transformedDescendantDoesNotAllocate() {
+        assumeTrue(AllocationCounter.isSupported());
+
+        // Robolectric's Matrix shadow allocates on its own, so the same Matrix calls made without
+        // the helper are measured first and only what the helper adds on top of them is counted
+        scrollTransformed(FRAMES, false);
+        scrollTransformed(FRAMES, true);
+
+        long before = AllocationCounter.getAllocatedBytes();
+        scrollTransformed(FRAMES, false);
+        final long baseline = AllocationCounter.getAllocatedBytes() - before;
+
+        before = AllocationCounter.getAllocatedBytes();
+        scrollTransformed(FRAMES, true);
+        final long allocated = AllocationCounter.getAllocatedBytes() - before - baseline;
+
+        assertTrue("Allocated " + allocated + " bytes over " + FRAMES + " frames", allocated < FRAMES);
+    }
+
+    @Test
+    public void descendantBottomFollowsOffset() {
+        mAppBarLayout.offsetTopAndBottom(-120);
+        assertEquals(136, mHelper.getDescendantBottom(mParent, mAppBarLayout));
+    }
+
+    @Test
+    public void descendantRectFollowsTransformedParent() {
+        mAppBarLayout.setTranslationY(-30);
+        final Rect rect = new Rect();
+        mHelper.getDescendantRect(mParent, mToolbar, rect);
+        assertEquals(new Rect(0, -30, 360, 26), rect);
+        assertEquals(26, mHelper.getDescendantBottom(mParent, mToolbar));
+    }
+
+    /**
+     * Moves the AppBarLayout back and forth through its scroll range, the way its Behavior does,
+     * and resolves its bottom every frame like the ToolbarButton Behavior does.
+     */
+    private void scroll(int frames) {
+        int offset = 0;
+        int direction = -1;
+        for (int i = 0; i < frames; i++) {
+            if (offset + direction < -SCROLL_RANGE || offset + direction > 0) {
+                direction = -direction;
+            }
+            mAppBarLayout.offsetTopAndBottom(direction);
+            offset += direction;
+            mHelper.getDescendantBottom(mParent, mAppBarLayout);
+        }
+    }
+
+    /**
+     * Moves the AppBarLayout through its scroll range by its translation, and resolves the bottom
+     * of the toolbar nested in it every frame, which takes the matrix walk. Without the helper, the
+     * Matrix calls the walk makes are run directly instead.
+     */
+    private void scrollTransformed(int frames, boolean useHelper) {
+        final Matrix matrix = new Matrix();
+        final RectF rectF = new RectF();
+        int offset = 0;
+        int direction = -1;
+        for (int i = 0; i < frames; i++) {
+            if (offset + direction < -SCROLL_RANGE || offset + direction > 0) {
+                direction = -direction;
+            }
+            offset += direction;
+            mAppBarLayout.setTranslationY(offset);
+            if (useHelper) {
+                mHelper.getDescendantBottom(mParent, mToolbar);
+            } else {
+                matrix.reset();
+                matrix.preTranslate(mAppBarLayout.getLeft(), mAppBarLayout.getTop());
+                matrix.preConcat(mAppBarLayout.getMatrix());
+                matrix.preTranslate(-mAppBarLayout.getScrollX(), -mAppBarLayout.getScrollY());
+                matrix.preTranslate(mToolbar.getLeft(), mToolbar.getTop());
+                rectF.set(0, 0, mToolbar.getWidth(), mToolbar.getHeight());
+                matrix.mapRect(rectF);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package am.gaut.android.toolbarbutton.helpers;
+
+import android.text.TextPaint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import am.gaut.android.toolbarbutton.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TextSizeTableTest {
+    private static final int WIDE = 10000;
+    private static final int TALL = 10000;
+
+    private final TextSizeTable mTable = new TextSizeTable();
+
+    @Test
+    public void largestSizeIsReachedWhenNotWholePixels() {
+        mTable.build("Action", new TextPaint(), WIDE, 20f, 31.5f);
+        assertEquals(31.5f, mTable.getTextSize(TALL), 0f);
+    }
+
+    @Test
+    public void smallestSizeIsClampedToLargest() {
+        mTable.build("Action", new TextPaint(), WIDE, 36f, 28f);
+        assertEquals(28f, mTable.getTextSize(TALL), 0f);
+        assertEquals(28f, mTable.getTextSize(0), 0f);
+        assertEquals(28f, mTable.getTextSize(-1), 0f);
+    }
+}